@@ -0,0 +1,99 @@
+package nl.kb.xml.transformassert;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Consumer;
+
+/**
+ * The stylesheets, schema and generated input documents shared by the benchmarks<br>
+ * Documents are generated once into target/benchmark-data and reused by later runs.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkData {
+    static final Consumer<String> SILENT = line -> { };
+    static final String[] PARAMETERS = {"collection", "benchmark"};
+
+    private static final Path DATA_DIR = Paths.get("target", "benchmark-data");
+
+    @Param({"1", "50", "500"})
+    public int sizeInMb;
+
+    File xslt;
+    File baselineXslt;
+    File xsd;
+    File input;
+    Path output;
+    Path scratch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Files.createDirectories(DATA_DIR);
+        xslt = resource("records.xslt");
+        baselineXslt = resource("records-baseline.xslt");
+        xsd = resource("output.xsd");
+        input = DATA_DIR.resolve(String.format("records-%dmb.xml", sizeInMb)).toFile();
+        output = DATA_DIR.resolve(String.format("output-%dmb.xml", sizeInMb));
+        scratch = DATA_DIR.resolve(String.format("scratch-%dmb.xml", sizeInMb));
+
+        if (!input.isFile()) {
+            generate(input.toPath(), sizeInMb * 1024L * 1024L);
+        }
+        if (!Files.isRegularFile(output)) {
+            TransformAssert.describe(xslt, SILENT, SILENT)
+                    .writingOutputTo(output)
+                    .whenTransforming(input, PARAMETERS);
+        }
+    }
+
+    /**
+     * @return the already transformed output of {@link #input}, read back from disk
+     */
+    TransformOutput transformedOutput() {
+        return TransformOutput.of(output);
+    }
+
+    static File resource(String name) throws IOException {
+        Files.createDirectories(DATA_DIR);
+        final Path target = DATA_DIR.resolve(name);
+        try (InputStream in = BenchmarkData.class.getResourceAsStream("/" + name)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target.toFile();
+    }
+
+    private static void generate(Path file, long size) throws IOException {
+        final Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(partial, StandardCharsets.UTF_8), 1 << 16)) {
+            final StringBuilder record = new StringBuilder();
+            long written = 0;
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<records>\n");
+            for (long i = 0; written < size; i++) {
+                record.setLength(0);
+                record.append("  <record id=\"r").append(i).append("\">\n")
+                        .append("    <title>  Title of record ").append(i).append("  </title>\n")
+                        .append("    <creator>creator ").append(i % 97).append("</creator>\n")
+                        .append("    <creator>creator ").append(i % 89).append("</creator>\n")
+                        .append("    <date>").append(1800 + i % 220).append("-01-01</date>\n")
+                        .append("  </record>\n");
+                writer.append(record);
+                written += record.length();
+            }
+            writer.write("</records>\n");
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
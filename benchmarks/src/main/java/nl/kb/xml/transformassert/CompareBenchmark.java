@@ -0,0 +1,66 @@
+package nl.kb.xml.transformassert;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TransformCompareWithTransformResults#outputsIdenticalXml(String...)} and
+ * {@link TransformCompareWithTransformResults#hasEqualOutputs(String...)} on outputs read back from disk
+ * <p>XmlUnit builds a DOM of both outputs; for the 500 MB document run with a larger heap
+ * (<code>-jvmArgsAppend -Xmx24g</code>)</p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class CompareBenchmark {
+
+    /**
+     * The compare chain, and the output of the baseline stylesheet
+     */
+    @State(Scope.Benchmark)
+    public static class Compared {
+        TransformCompareWithTransformers compare;
+        TransformOutput baseline;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkData data) throws Exception {
+            final Path baselineOutput = data.output.resolveSibling("baseline-" + data.output.getFileName());
+            TransformAssert.describe(data.baselineXslt, BenchmarkData.SILENT, BenchmarkData.SILENT)
+                    .writingOutputTo(baselineOutput)
+                    .whenTransforming(data.input, BenchmarkData.PARAMETERS);
+            baseline = TransformOutput.of(baselineOutput);
+            compare = TransformAssert.describe(data.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT)
+                    .whenComparingTo(data.baselineXslt);
+        }
+
+        TransformCompareWithTransformResults results(BenchmarkData data) {
+            // no source tree: the benchmarked assertions never transform again
+            return new TransformCompareWithTransformResults(compare, baseline, data.transformedOutput(),
+                    data.input.getPath(), null, BenchmarkData.PARAMETERS, BenchmarkData.SILENT);
+        }
+    }
+
+    @Benchmark
+    public TransformCompareWithTransformResults outputsIdenticalXml(BenchmarkData data, Compared compared) {
+        return compared.results(data).outputsIdenticalXml("identical");
+    }
+
+    @Benchmark
+    public TransformCompareWithTransformResults hasEqualOutputs(BenchmarkData data, Compared compared) throws Exception {
+        return compared.results(data).hasEqualOutputs("equal");
+    }
+}
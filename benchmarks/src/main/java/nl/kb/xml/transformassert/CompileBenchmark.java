@@ -0,0 +1,63 @@
+package nl.kb.xml.transformassert;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TransformAssert#describe(File)}: compiling the stylesheet, and fetching it from the
+ * {@link TemplatesCache}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+
+    /**
+     * Keeps the compiled stylesheet between invocations
+     */
+    @State(Scope.Benchmark)
+    public static class Cached {
+        File xslt;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            xslt = BenchmarkData.resource("records.xslt");
+        }
+    }
+
+    /**
+     * Empties the {@link TemplatesCache} before every invocation
+     */
+    @State(Scope.Benchmark)
+    public static class Uncached extends Cached {
+
+        @Setup(Level.Invocation)
+        public void clearCache() {
+            TemplatesCache.getInstance().invalidateAll();
+        }
+    }
+
+    @Benchmark
+    public TransformAssertWithTransformer describe(Uncached uncached) throws Exception {
+        return TransformAssert.describe(uncached.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT);
+    }
+
+    @Benchmark
+    public TransformAssertWithTransformer describeCached(Cached cached) throws Exception {
+        return TransformAssert.describe(cached.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT);
+    }
+}
@@ -0,0 +1,83 @@
+package nl.kb.xml.transformassert;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures {@link TransformAssertWithTransformer#whenTransforming(File, String...)} and the logging done by
+ * {@link TransformAssertWithTransformResult#evaluate()}
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class TransformBenchmark {
+
+    /**
+     * Counts the logged characters, so the logging cannot be optimized away
+     */
+    @State(Scope.Thread)
+    public static class Log implements Consumer<String> {
+        long characters;
+
+        @Override
+        public void accept(String line) {
+            characters += line.length();
+        }
+    }
+
+    /**
+     * A transformation result of which only the evaluation is measured
+     */
+    @State(Scope.Thread)
+    public static class Transformed {
+        TransformAssertWithTransformResult result;
+
+        @Setup(Level.Iteration)
+        public void setUp(BenchmarkData data, Log log) throws Exception {
+            result = TransformAssert.describe(data.xslt, log, log)
+                    .writingOutputTo(data.scratch)
+                    .whenTransforming(data.input, BenchmarkData.PARAMETERS);
+        }
+    }
+
+    @Benchmark
+    public TransformAssertWithTransformResult whenTransforming(BenchmarkData data) throws Exception {
+        return TransformAssert.describe(data.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT)
+                .whenTransforming(data.input, BenchmarkData.PARAMETERS);
+    }
+
+    @Benchmark
+    public TransformAssertWithTransformResult whenTransformingUsingResultTree(BenchmarkData data) throws Exception {
+        return TransformAssert.describe(data.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT)
+                .usingResultTree()
+                .whenTransforming(data.input, BenchmarkData.PARAMETERS);
+    }
+
+    @Benchmark
+    public TransformAssertWithTransformResult whenTransformingToDisk(BenchmarkData data) throws Exception {
+        return TransformAssert.describe(data.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT)
+                .writingOutputTo(data.scratch)
+                .whenTransforming(data.input, BenchmarkData.PARAMETERS);
+    }
+
+    @Benchmark
+    public long evaluate(Transformed transformed, Log log) throws Exception {
+        transformed.result.evaluate();
+        return log.characters;
+    }
+}
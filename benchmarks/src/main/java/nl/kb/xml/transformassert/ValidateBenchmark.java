@@ -0,0 +1,41 @@
+package nl.kb.xml.transformassert;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TransformAssertWithTransformResult#validatesAgainstXSD(File, String...)} on an output read
+ * back from disk, and validation during the transformation with
+ * {@link TransformAssertWithTransformer#whileValidatingAgainstXSD(File, String...)}
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class ValidateBenchmark {
+
+    @Benchmark
+    public TransformAssertWithTransformResult validatesAgainstXSD(BenchmarkData data) throws Exception {
+        final TransformAssertWithTransformer transformer =
+                TransformAssert.describe(data.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT);
+        return TransformAssertWithTransformResult.unlogged(transformer, data.transformedOutput())
+                .validatesAgainstXSD(data.xsd);
+    }
+
+    @Benchmark
+    public TransformAssertWithTransformResult whileValidatingAgainstXSD(BenchmarkData data) throws Exception {
+        return TransformAssert.describe(data.xslt, BenchmarkData.SILENT, BenchmarkData.SILENT)
+                .whileValidatingAgainstXSD(data.xsd)
+                .writingOutputTo(data.scratch)
+                .whenTransforming(data.input, BenchmarkData.PARAMETERS);
+    }
+}
@@ -0,0 +1,60 @@
+package nl.kb.xml.transformassert;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.xpath.XPathConstants;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link XpathEvaluator#loadDocument()} and {@link XpathEvaluator#getXpathResult(String)}
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class XpathBenchmark {
+
+    /**
+     * An evaluator of which the document is already loaded
+     */
+    @State(Scope.Thread)
+    public static class Loaded {
+        XpathEvaluator evaluator;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkData data) throws Exception {
+            evaluator = new XpathEvaluator(data.transformedOutput(), SaxonEngine.getDefault(), "benchmark");
+            evaluator.loadDocument();
+        }
+    }
+
+    @Benchmark
+    public XpathEvaluator loadDocument(BenchmarkData data) throws Exception {
+        final XpathEvaluator evaluator = new XpathEvaluator(data.transformedOutput(), SaxonEngine.getDefault(), "benchmark");
+        evaluator.loadDocument();
+        return evaluator;
+    }
+
+    @Benchmark
+    public List<Object> getXpathResultNodes(Loaded loaded) throws Exception {
+        return loaded.evaluator.getXpathResult("//item[year = '1900']/name/text()");
+    }
+
+    @Benchmark
+    public List<Object> getXpathResultNumber(Loaded loaded) throws Exception {
+        return loaded.evaluator.getXpathResult("count(//creator)", XPathConstants.NUMBER,
+                loaded.evaluator.getNamespaces());
+    }
+}
@@ -0,0 +1,198 @@
+package nl.kb.xml.transformassert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link MetricsListener} which sums the measurements per {@link Phase}, stylesheet and rule, and can dump
+ * them as a table or as CSV at the end of a run<br>
+ * For instance:
+ * <pre>
+ * private static final AggregatingMetricsListener METRICS = new AggregatingMetricsListener();
+ *
+ * &#64;BeforeClass
+ * public static void registerMetrics() {
+ *     TransformAssert.setMetricsListener(METRICS);
+ * }
+ *
+ * &#64;AfterClass
+ * public static void dumpMetrics() throws IOException {
+ *     System.out.println(METRICS.toTable());
+ *     METRICS.writeCsv(Paths.get("target/transform-assert-metrics.csv"));
+ * }
+ * </pre>
+ */
+public class AggregatingMetricsListener implements MetricsListener {
+    private static final String CSV_HEADER =
+            "phase,stylesheet,rule,count,wall_nanos,max_wall_nanos,cpu_nanos,allocated_bytes";
+
+    private final ConcurrentMap<Key, Totals> totals = new ConcurrentHashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPhase(PhaseMetrics metrics) {
+        totals.computeIfAbsent(new Key(metrics.getPhase(), metrics.getStylesheet(), metrics.getRule()),
+                key -> new Totals()).add(metrics);
+    }
+
+    /**
+     * @param phase the {@link Phase}
+     * @return the number of measurements of the phase
+     */
+    public long getCount(Phase phase) {
+        return rows().stream().filter(row -> row.key.phase == phase).mapToLong(row -> row.totals.count).sum();
+    }
+
+    /**
+     * @param phase the {@link Phase}
+     * @return the summed wall clock time of the phase in nanoseconds
+     */
+    public long getWallNanos(Phase phase) {
+        return rows().stream().filter(row -> row.key.phase == phase).mapToLong(row -> row.totals.wallNanos).sum();
+    }
+
+    /**
+     * @return a table of the totals per phase, stylesheet and rule, most wall clock time first
+     */
+    public String toTable() {
+        final StringBuilder sb = new StringBuilder(String.format("%-14s %8s %12s %12s %12s %14s  %s%n",
+                "PHASE", "COUNT", "WALL MS", "MAX MS", "CPU MS", "ALLOCATED MB", "STYLESHEET / RULE"));
+        for (Row row : rows()) {
+            sb.append(String.format("%-14s %8d %12.1f %12.1f %12s %14s  %s%s%n",
+                    row.key.phase,
+                    row.totals.count,
+                    row.totals.wallNanos / 1e6,
+                    row.totals.maxWallNanos / 1e6,
+                    row.totals.cpuNanos < 0 ? "n/a" : String.format("%.1f", row.totals.cpuNanos / 1e6),
+                    row.totals.allocatedBytes < 0 ? "n/a"
+                            : String.format("%.1f", row.totals.allocatedBytes / (1024.0 * 1024.0)),
+                    row.key.stylesheet,
+                    row.key.rule == null ? "" : " / " + row.key.rule));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the totals per phase, stylesheet and rule as CSV, with a header line
+     */
+    public String toCsv() {
+        final StringBuilder sb = new StringBuilder(CSV_HEADER).append(System.lineSeparator());
+        for (Row row : rows()) {
+            sb.append(row.key.phase).append(',')
+                    .append(csv(row.key.stylesheet)).append(',')
+                    .append(csv(row.key.rule)).append(',')
+                    .append(row.totals.count).append(',')
+                    .append(row.totals.wallNanos).append(',')
+                    .append(row.totals.maxWallNanos).append(',')
+                    .append(row.totals.cpuNanos).append(',')
+                    .append(row.totals.allocatedBytes)
+                    .append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes {@link #toCsv()} to a file
+     * @param file the file to write, replaced when it exists
+     * @throws IOException when the file cannot be written
+     */
+    public void writeCsv(Path file) throws IOException {
+        Files.write(file, toCsv().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Discards all measurements
+     */
+    public void reset() {
+        totals.clear();
+    }
+
+    private List<Row> rows() {
+        final List<Row> rows = new ArrayList<>();
+        totals.forEach((key, value) -> rows.add(new Row(key, value.snapshot())));
+        rows.sort(Comparator.comparingLong((Row row) -> row.totals.wallNanos).reversed());
+        return rows;
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static class Key {
+        private final Phase phase;
+        private final String stylesheet;
+        private final String rule;
+
+        private Key(Phase phase, String stylesheet, String rule) {
+            this.phase = phase;
+            this.stylesheet = stylesheet;
+            this.rule = rule;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return phase == other.phase
+                    && Objects.equals(stylesheet, other.stylesheet)
+                    && Objects.equals(rule, other.rule);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(phase, stylesheet, rule);
+        }
+    }
+
+    private static class Totals {
+        private long count;
+        private long wallNanos;
+        private long maxWallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+
+        private synchronized void add(PhaseMetrics metrics) {
+            count++;
+            wallNanos += metrics.getWallNanos();
+            maxWallNanos = Math.max(maxWallNanos, metrics.getWallNanos());
+            cpuNanos = cpuNanos < 0 || metrics.getCpuNanos() < 0 ? -1 : cpuNanos + metrics.getCpuNanos();
+            allocatedBytes = allocatedBytes < 0 || metrics.getAllocatedBytes() < 0
+                    ? -1 : allocatedBytes + metrics.getAllocatedBytes();
+        }
+
+        private synchronized Totals snapshot() {
+            final Totals snapshot = new Totals();
+            snapshot.count = count;
+            snapshot.wallNanos = wallNanos;
+            snapshot.maxWallNanos = maxWallNanos;
+            snapshot.cpuNanos = cpuNanos;
+            snapshot.allocatedBytes = allocatedBytes;
+            return snapshot;
+        }
+    }
+
+    private static class Row {
+        private final Key key;
+        private final Totals totals;
+
+        private Row(Key key, Totals totals) {
+            this.key = key;
+            this.totals = totals;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package nl.kb.xml.transformassert;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.xpath.XPathExpressionException;
+import java.io.IOException;
+
+/**
+ * A reusable set of assertions, applied to the output of many transformations<br>
+ * For instance:
+ * <pre>
+ * final AssertionPlan plan = result -&gt; result
+ *         .hasXpathContaining("/output/one/text()", "bar")
+ *         .andValidatesAgainstXSD(new File("src/test/resources/1.xsd"));
+ * </pre>
+ */
+@FunctionalInterface
+public interface AssertionPlan {
+
+    /**
+     * Applies the assertions to one transformation result
+     * @param result the {@link TransformAssertWithTransformResult} to do assertions on
+     * @throws IOException when a file needed by an assertion cannot be read
+     * @throws XPathExpressionException when an xpath is not valid
+     * @throws SAXException when an xsd cannot be parsed
+     */
+    void apply(TransformAssertWithTransformResult result) throws IOException, XPathExpressionException, SAXException;
+}
@@ -0,0 +1,138 @@
+package nl.kb.xml.transformassert;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.xpath.XPathExpressionException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs one compiled stylesheet plus one {@link AssertionPlan} over many inputs on an {@link ExecutorService}<br>
+ * When the stylesheet is failing fast, the first failed job cancels the others: jobs which did not start yet are
+ * skipped, and running transformations are aborted at their next output element and skipped as well. Jobs which
+ * were not aborted keep their own failures, also when they finish after the cancellation.
+ */
+class BatchRunner {
+    private final TransformAssertWithTransformer transformer;
+    private final AssertionPlan plan;
+    private final boolean failFast;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    BatchRunner(TransformAssertWithTransformer transformer, AssertionPlan plan) {
+        this.transformer = transformer;
+        this.plan = plan;
+        this.failFast = transformer.isFailingFast();
+    }
+
+    List<Outcome> run(List<Job> jobs, ExecutorService executor) {
+        final List<CompletableFuture<Outcome>> futures = new ArrayList<>();
+        for (Job job : jobs) {
+            futures.add(CompletableFuture.supplyAsync(() -> run(job), executor));
+        }
+
+        final List<Outcome> outcomes = new ArrayList<>();
+        for (CompletableFuture<Outcome> future : futures) {
+            outcomes.add(future.join());
+        }
+        return outcomes;
+    }
+
+    private Outcome run(Job job) {
+        if (cancelled.get()) {
+            return new Outcome(job.label, 0, Collections.emptyList(), true);
+        }
+        final long start = System.nanoTime();
+        // set once the transformation saw the cancellation, which aborts it
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        List<String> failedRules;
+        TransformOutput output = null;
+        try {
+            output = job.transformation.run(failFast ? () -> {
+                if (cancelled.get()) {
+                    aborted.set(true);
+                }
+                return aborted.get();
+            } : null);
+            final TransformAssertWithTransformResult result = TransformAssertWithTransformResult.unlogged(transformer,
+                    output);
+            plan.apply(result);
+            failedRules = result.getFailedRules();
+        } catch (TransformerException e) {
+            failedRules = Collections.singletonList("TRANSFORMATION FAILED: " + e.getMessage());
+        } catch (IOException | XPathExpressionException | SAXException e) {
+            failedRules = Collections.singletonList("ASSERTION ERROR: " + e.getMessage());
+        } catch (Exception e) {
+            failedRules = Collections.singletonList("ERROR: " + e);
+        } finally {
+            if (output != null) {
+                output.release();
+            }
+        }
+        if (aborted.get()) {
+            return new Outcome(job.label, System.nanoTime() - start, Collections.emptyList(), true);
+        }
+        if (failFast && !failedRules.isEmpty()) {
+            cancelled.set(true);
+        }
+        return new Outcome(job.label, System.nanoTime() - start, failedRules, false);
+    }
+
+    /**
+     * Transforms the input of one job, checking the cancelled flag (when not null) while producing output
+     */
+    @FunctionalInterface
+    interface Transformation {
+        TransformOutput run(BooleanSupplier cancelled) throws Exception;
+    }
+
+    static class Job {
+        private final String label;
+        private final Transformation transformation;
+
+        Job(String label, Transformation transformation) {
+            this.label = label;
+            this.transformation = transformation;
+        }
+    }
+
+    static class Outcome {
+        private final String label;
+        private final long nanos;
+        private final List<String> failedRules;
+        private final boolean skipped;
+
+        private Outcome(String label, long nanos, List<String> failedRules, boolean skipped) {
+            this.label = label;
+            this.nanos = nanos;
+            this.failedRules = failedRules;
+            this.skipped = skipped;
+        }
+
+        String getLabel() {
+            return label;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+
+        List<String> getFailedRules() {
+            return failedRules;
+        }
+
+        boolean isPassed() {
+            return !skipped && failedRules.isEmpty();
+        }
+
+        boolean isSkipped() {
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package nl.kb.xml.transformassert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collects the log lines of one asynchronous result, so they reach the shared log back in one block at evaluate
+ * in stead of interleaved with the lines of other results in flight
+ */
+class BufferedLogBack implements Consumer<String> {
+    private final Consumer<String> target;
+    private final List<String> lines = new ArrayList<>();
+
+    BufferedLogBack(Consumer<String> target) {
+        this.target = target;
+    }
+
+    @Override
+    public synchronized void accept(String line) {
+        lines.add(line);
+    }
+
+    /**
+     * Passes the collected lines of logBack on to its target, when it is a {@link BufferedLogBack}
+     */
+    static void flush(Consumer<String> logBack) {
+        if (logBack instanceof BufferedLogBack) {
+            ((BufferedLogBack) logBack).flush();
+        }
+    }
+
+    private void flush() {
+        final List<String> collected;
+        synchronized (this) {
+            collected = new ArrayList<>(lines);
+            lines.clear();
+        }
+        synchronized (target) {
+            collected.forEach(target);
+        }
+    }
+}
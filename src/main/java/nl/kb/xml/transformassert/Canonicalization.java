@@ -0,0 +1,183 @@
+package nl.kb.xml.transformassert;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Determines which differences between two outputs are insignificant to
+ * {@link TransformCompareWithTransformResults#hasEqualOutputs(Canonicalization, String...)}<br>
+ * Both outputs are reduced to a SHA-256 digest of their canonical form while they are read, in the spirit of
+ * <a href="https://www.w3.org/TR/xml-c14n11/">Canonical XML</a>: the encoding, the xml declaration, the quotes
+ * around attributes, empty element syntax, character references, CDATA sections, namespace prefixes and namespace
+ * declarations never matter. Comments and processing instructions do.<br>
+ * For instance:
+ * <pre>
+ * describe(new File("./refactored.xslt"))
+ *         .whenComparingTo(new File("./original.xslt"))
+ *         .whenTransforming(new File("./export.xml"))
+ *         .hasEqualOutputs(Canonicalization.xml().ignoringWhitespace().ignoringAttributeOrder())
+ *         .evaluate();
+ * </pre>
+ */
+public final class Canonicalization {
+    private static final XMLInputFactory INPUT_FACTORY = StreamingXpath.newInputFactory();
+    private static final Canonicalization XML = new Canonicalization(false, false);
+    private static final Comparator<String[]> ATTRIBUTE_ORDER =
+            Comparator.comparing((String[] attribute) -> attribute[0]).thenComparing(attribute -> attribute[1]);
+
+    private static final byte START_ELEMENT = 1;
+    private static final byte ATTRIBUTE = 2;
+    private static final byte TEXT = 3;
+    private static final byte END_ELEMENT = 4;
+    private static final byte COMMENT = 5;
+    private static final byte PROCESSING_INSTRUCTION = 6;
+    private static final byte DTD = 7;
+
+    private final boolean ignoringWhitespace;
+    private final boolean ignoringAttributeOrder;
+
+    private Canonicalization(boolean ignoringWhitespace, boolean ignoringAttributeOrder) {
+        this.ignoringWhitespace = ignoringWhitespace;
+        this.ignoringAttributeOrder = ignoringAttributeOrder;
+    }
+
+    /**
+     * @return the canonical form which keeps all whitespace and the order of the attributes
+     */
+    public static Canonicalization xml() {
+        return XML;
+    }
+
+    /**
+     * @return this canonical form, trimming text and dropping whitespace-only text, like indentation
+     */
+    public Canonicalization ignoringWhitespace() {
+        return new Canonicalization(true, ignoringAttributeOrder);
+    }
+
+    /**
+     * @return this canonical form, sorting the attributes of every element by namespace and name
+     */
+    public Canonicalization ignoringAttributeOrder() {
+        return new Canonicalization(ignoringWhitespace, true);
+    }
+
+    /**
+     * Reads the xml from in, digesting its canonical form without keeping the xml in memory
+     * @throws XMLStreamException when the xml is not well-formed
+     */
+    byte[] digest(InputStream in) throws XMLStreamException {
+        final MessageDigest digest = newDigest();
+        final StringBuilder text = new StringBuilder();
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                        || event == XMLStreamConstants.SPACE) {
+                    text.append(reader.getText());
+                    continue;
+                }
+                flushText(text, digest);
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        digest.update(START_ELEMENT);
+                        update(digest, Objects.toString(reader.getNamespaceURI(), ""));
+                        update(digest, reader.getLocalName());
+                        final String[][] attributes = new String[reader.getAttributeCount()][];
+                        for (int i = 0; i < attributes.length; i++) {
+                            attributes[i] = new String[]{
+                                    Objects.toString(reader.getAttributeNamespace(i), ""),
+                                    reader.getAttributeLocalName(i),
+                                    reader.getAttributeValue(i)
+                            };
+                        }
+                        if (ignoringAttributeOrder) {
+                            Arrays.sort(attributes, ATTRIBUTE_ORDER);
+                        }
+                        for (String[] attribute : attributes) {
+                            digest.update(ATTRIBUTE);
+                            update(digest, attribute[0]);
+                            update(digest, attribute[1]);
+                            update(digest, attribute[2]);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        digest.update(END_ELEMENT);
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        digest.update(COMMENT);
+                        update(digest, reader.getText());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        digest.update(PROCESSING_INSTRUCTION);
+                        update(digest, reader.getPITarget());
+                        update(digest, Objects.toString(reader.getPIData(), ""));
+                        break;
+                    case XMLStreamConstants.DTD:
+                        digest.update(DTD);
+                        update(digest, reader.getText());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return digest.digest();
+    }
+
+    private void flushText(StringBuilder text, MessageDigest digest) {
+        final String value = ignoringWhitespace ? text.toString().trim() : text.toString();
+        text.setLength(0);
+        if (!value.isEmpty()) {
+            digest.update(TEXT);
+            update(digest, value);
+        }
+    }
+
+    static void update(MessageDigest digest, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        update(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    static void update(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Canonicalization)) {
+            return false;
+        }
+        final Canonicalization other = (Canonicalization) o;
+        return ignoringWhitespace == other.ignoringWhitespace && ignoringAttributeOrder == other.ignoringAttributeOrder;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ignoringWhitespace, ignoringAttributeOrder);
+    }
+}
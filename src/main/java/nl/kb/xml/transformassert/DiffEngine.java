@@ -0,0 +1,20 @@
+package nl.kb.xml.transformassert;
+
+/**
+ * The engine used by {@link TransformCompareWithTransformResults#outputsIdenticalXml(DiffEngine, String...)}
+ * to find the semantic differences between two outputs
+ */
+public enum DiffEngine {
+    /**
+     * The <a href="https://www.xmlunit.org/">XmlUnit</a> diff, matching sibling elements by name and text (default)
+     */
+    XMLUNIT,
+
+    /**
+     * Hashes every subtree bottom-up, matches sibling elements by hash in linear time and only descends into
+     * subtrees whose hashes differ; scales to outputs with very many sibling elements<br>
+     * Like {@link #XMLUNIT} it ignores the order of sibling elements, namespace prefixes and whitespace around text,
+     * and compares comments and processing instructions in document order.
+     */
+    HASHED
+}
@@ -0,0 +1,52 @@
+package nl.kb.xml.transformassert;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Helpers to run work that throws checked exceptions on an {@link Executor} and get those exceptions back
+ */
+class Futures {
+
+    static <T> CompletableFuture<T> supplyAsync(Callable<T> callable, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return callable.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    static <T, E extends Exception> T join(CompletableFuture<T> future, Class<E> exceptionType) throws E {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause(), exceptionType);
+        }
+    }
+
+    static <E extends Exception> E unwrap(Throwable cause, Class<E> exceptionType) {
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (exceptionType.isInstance(cause)) {
+            return exceptionType.cast(cause);
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+}
@@ -0,0 +1,458 @@
+package nl.kb.xml.transformassert;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The {@link DiffEngine#HASHED} diff: both outputs are read into a light tree with a hash per subtree, computed
+ * bottom-up while reading<br>
+ * The hash of an element is a SHA-256 digest of its namespace, local name, sorted attributes, its trimmed text
+ * segments with their positions among the child elements, its comments and processing instructions in document
+ * order and the sorted digests of its child elements, so it does not depend on the order of the child elements.
+ * Two elements with equal digests are still compared node by node before they count as equal; otherwise their
+ * children are matched by digest, and only the unmatched children are paired by name and compared further.
+ * <p>Like the {@link DiffEngine#XMLUNIT} diff, comments and processing instructions (also outside the root element)
+ * are compared in document order, with their values trimmed, and split the text around them.</p>
+ */
+class HashedDiff {
+    private static final XMLInputFactory INPUT_FACTORY = StreamingXpath.newInputFactory();
+
+    private HashedDiff() {
+
+    }
+
+    /**
+     * @return the differences, each with the xpath of the compared nodes, in the format of XmlUnit
+     * @throws XMLStreamException when one of the outputs is not well-formed
+     */
+    static List<String> diff(InputStream expected, InputStream actual) throws XMLStreamException {
+        final Element expectedRoot = read(expected);
+        final Element actualRoot = read(actual);
+        final List<String> differences = new ArrayList<>();
+        compareMisc(expectedRoot.outside, "", actualRoot.outside, "", differences);
+        if (!expectedRoot.sameName(actualRoot)) {
+            differences.add(String.format("Expected element tag '%s' but was '%s' - comparing <%s...> at %s to <%s...> at %s (DIFFERENT)",
+                    expectedRoot.localName, actualRoot.localName, expectedRoot.qName, expectedRoot.path,
+                    actualRoot.qName, actualRoot.path));
+        } else {
+            compare(expectedRoot, actualRoot, differences);
+        }
+        return differences;
+    }
+
+    private static void compare(Element expected, Element actual, List<String> differences) {
+        if (expected.hash.equals(actual.hash) && expected.deepEquals(actual)) {
+            return;
+        }
+
+        for (Map.Entry<String, String> attribute : expected.attributes.entrySet()) {
+            final String actualValue = actual.attributes.get(attribute.getKey());
+            if (actualValue == null) {
+                differences.add(String.format("Expected attribute name '%s' but was 'null' - comparing <%s...> at %s/@%s to <%s...> at %s (DIFFERENT)",
+                        attribute.getKey(), expected.qName, expected.path, attribute.getKey(), actual.qName, actual.path));
+            } else if (!actualValue.equals(attribute.getValue())) {
+                differences.add(String.format("Expected attribute value '%s' but was '%s' - comparing <%s...> at %s/@%s to <%s...> at %s/@%s (DIFFERENT)",
+                        attribute.getValue(), actualValue, expected.qName, expected.path, attribute.getKey(),
+                        actual.qName, actual.path, attribute.getKey()));
+            }
+        }
+        for (String name : actual.attributes.keySet()) {
+            if (!expected.attributes.containsKey(name)) {
+                differences.add(String.format("Expected attribute name 'null' but was '%s' - comparing <%s...> at %s to <%s...> at %s/@%s (DIFFERENT)",
+                        name, expected.qName, expected.path, actual.qName, actual.path, name));
+            }
+        }
+
+        for (int i = 0; i < Math.max(expected.text.size(), actual.text.size()); i++) {
+            final Text expectedText = i < expected.text.size() ? expected.text.get(i) : null;
+            final Text actualText = i < actual.text.size() ? actual.text.get(i) : null;
+            if (!Objects.equals(expectedText, actualText)) {
+                differences.add(String.format("Expected text value '%s' but was '%s' - comparing <%s...> at %s/text()[%d] to <%s...> at %s/text()[%d] (DIFFERENT)",
+                        expectedText == null ? null : expectedText.value, actualText == null ? null : actualText.value,
+                        expected.qName, expected.path, i + 1, actual.qName, actual.path, i + 1));
+            }
+        }
+
+        compareMisc(expected.misc, expected.path, actual.misc, actual.path, differences);
+        compareChildren(expected, actual, differences);
+    }
+
+    /**
+     * Compares the comments and processing instructions of two parents in document order
+     */
+    private static void compareMisc(List<Misc> expected, String expectedPath, List<Misc> actual, String actualPath,
+                                    List<String> differences) {
+        final Map<Boolean, Integer> expectedCounts = new HashMap<>();
+        final Map<Boolean, Integer> actualCounts = new HashMap<>();
+        for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+            final Misc expectedNode = i < expected.size() ? expected.get(i) : null;
+            final Misc actualNode = i < actual.size() ? actual.get(i) : null;
+            final String expectedNodePath = expectedNode == null ? null
+                    : expectedPath + expectedNode.step(expectedCounts.merge(expectedNode.comment, 1, Integer::sum));
+            final String actualNodePath = actualNode == null ? null
+                    : actualPath + actualNode.step(actualCounts.merge(actualNode.comment, 1, Integer::sum));
+            if (Objects.equals(expectedNode, actualNode)) {
+                continue;
+            }
+            if (actualNode == null) {
+                differences.add(String.format("Expected child '%s' but was 'null' - comparing %s at %s to <NULL> (DIFFERENT)",
+                        expectedNode.name(), expectedNode, expectedNodePath));
+            } else if (expectedNode == null) {
+                differences.add(String.format("Expected child 'null' but was '%s' - comparing <NULL> to %s at %s (DIFFERENT)",
+                        actualNode.name(), actualNode, actualNodePath));
+            } else if (expectedNode.comment != actualNode.comment) {
+                differences.add(String.format("Expected child '%s' but was '%s' - comparing %s at %s to %s at %s (DIFFERENT)",
+                        expectedNode.name(), actualNode.name(), expectedNode, expectedNodePath, actualNode, actualNodePath));
+            } else if (expectedNode.comment) {
+                differences.add(String.format("Expected text value '%s' but was '%s' - comparing %s at %s to %s at %s (DIFFERENT)",
+                        expectedNode.value, actualNode.value, expectedNode, expectedNodePath, actualNode, actualNodePath));
+            } else if (!expectedNode.target.equals(actualNode.target)) {
+                differences.add(String.format("Expected processing instruction target '%s' but was '%s' - comparing %s at %s to %s at %s (DIFFERENT)",
+                        expectedNode.target, actualNode.target, expectedNode, expectedNodePath, actualNode, actualNodePath));
+            } else {
+                differences.add(String.format("Expected processing instruction data '%s' but was '%s' - comparing %s at %s to %s at %s (DIFFERENT)",
+                        expectedNode.value, actualNode.value, expectedNode, expectedNodePath, actualNode, actualNodePath));
+            }
+        }
+    }
+
+    private static void compareChildren(Element expected, Element actual, List<String> differences) {
+        // children with equal hashes are identical subtrees; pair them off in one pass
+        final Map<Digest, Deque<Element>> unmatchedActual = new HashMap<>();
+        for (Element child : actual.children) {
+            unmatchedActual.computeIfAbsent(child.hash, key -> new ArrayDeque<>()).add(child);
+        }
+        final List<Element> unmatchedExpected = new ArrayList<>();
+        final Set<Element> matchedActual = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Element child : expected.children) {
+            final Deque<Element> candidates = unmatchedActual.get(child.hash);
+            if (candidates == null || candidates.isEmpty() || !child.deepEquals(candidates.peekFirst())) {
+                unmatchedExpected.add(child);
+            } else {
+                matchedActual.add(candidates.removeFirst());
+            }
+        }
+
+        // the rest is paired by name, in document order, and compared further
+        final Map<String, Deque<Element>> remainingByName = new LinkedHashMap<>();
+        for (Element child : actual.children) {
+            if (!matchedActual.contains(child)) {
+                remainingByName.computeIfAbsent(child.name(), name -> new ArrayDeque<>()).add(child);
+            }
+        }
+        for (Element child : unmatchedExpected) {
+            final Deque<Element> candidates = remainingByName.get(child.name());
+            if (candidates == null || candidates.isEmpty()) {
+                differences.add(String.format("Expected child '%s' but was 'null' - comparing <%s...> at %s to <NULL> (DIFFERENT)",
+                        child.qName, child.qName, child.path));
+            } else {
+                compare(child, candidates.removeFirst(), differences);
+            }
+        }
+        for (Deque<Element> remaining : remainingByName.values()) {
+            for (Element child : remaining) {
+                differences.add(String.format("Expected child 'null' but was '%s' - comparing <NULL> to <%s...> at %s (DIFFERENT)",
+                        child.qName, child.qName, child.path));
+            }
+        }
+    }
+
+    private static Element read(InputStream in) throws XMLStreamException {
+        final MessageDigest digest = Canonicalization.newDigest();
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            final Deque<Element> open = new ArrayDeque<>();
+            final Deque<Map<String, Integer>> siblingCounts = new ArrayDeque<>();
+            siblingCounts.push(new HashMap<>());
+            final List<Misc> outside = new ArrayList<>();
+            Element root = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        final String prefix = reader.getPrefix();
+                        final String qName = prefix == null || prefix.isEmpty()
+                                ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+                        final int index = siblingCounts.peek().merge(qName, 1, Integer::sum);
+                        final Element element = new Element(
+                                Objects.toString(reader.getNamespaceURI(), ""), reader.getLocalName(), qName,
+                                (open.isEmpty() ? "" : open.peek().path) + "/" + qName + "[" + index + "]");
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            final String namespace = reader.getAttributeNamespace(i);
+                            element.attributes.put(namespace == null || namespace.isEmpty()
+                                    ? reader.getAttributeLocalName(i)
+                                    : "{" + namespace + "}" + reader.getAttributeLocalName(i),
+                                    reader.getAttributeValue(i));
+                        }
+                        if (open.isEmpty()) {
+                            root = element;
+                        } else {
+                            open.peek().children.add(element);
+                        }
+                        open.push(element);
+                        siblingCounts.push(new HashMap<>());
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (!open.isEmpty()) {
+                            open.peek().appendText(reader.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        final Misc comment = new Misc(true, null, reader.getText().trim());
+                        if (open.isEmpty()) {
+                            outside.add(comment);
+                        } else {
+                            open.peek().appendMisc(comment);
+                        }
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        final Misc instruction = new Misc(false, reader.getPITarget(),
+                                Objects.toString(reader.getPIData(), "").trim());
+                        if (open.isEmpty()) {
+                            outside.add(instruction);
+                        } else {
+                            open.peek().appendMisc(instruction);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        open.pop().finish(digest);
+                        siblingCounts.pop();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (root == null) {
+                throw new XMLStreamException("No root element");
+            }
+            root.outside = outside;
+            return root;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static class Element {
+        private final String namespace;
+        private final String localName;
+        private final String qName;
+        private final String path;
+        private final Map<String, String> attributes = new TreeMap<>();
+        private final List<Element> children = new ArrayList<>();
+        private final List<Text> text = new ArrayList<>();
+        private final List<Misc> misc = new ArrayList<>();
+        /**
+         * The comments and processing instructions before and after the root element, only set on the root
+         */
+        private List<Misc> outside = Collections.emptyList();
+        private boolean textSplit = false;
+        private Digest hash;
+
+        private Element(String namespace, String localName, String qName, String path) {
+            this.namespace = namespace;
+            this.localName = localName;
+            this.qName = qName;
+            this.path = path;
+        }
+
+        private String name() {
+            return "{" + namespace + "}" + localName;
+        }
+
+        private boolean sameName(Element other) {
+            return namespace.equals(other.namespace) && localName.equals(other.localName);
+        }
+
+        private void appendText(String characters) {
+            final String trimmed = characters.trim();
+            if (trimmed.isEmpty()) {
+                return;
+            }
+            final Text last = text.isEmpty() ? null : text.get(text.size() - 1);
+            if (last != null && last.position == children.size() && !textSplit) {
+                text.set(text.size() - 1, new Text(last.position, last.value + trimmed));
+            } else {
+                text.add(new Text(children.size(), trimmed));
+            }
+            textSplit = false;
+        }
+
+        private void appendMisc(Misc node) {
+            misc.add(node);
+            textSplit = true;
+        }
+
+        /**
+         * Computes the digest once all children are read; the child digests are sorted, so their order does not
+         * matter
+         */
+        private void finish(MessageDigest digest) {
+            Canonicalization.update(digest, namespace);
+            Canonicalization.update(digest, localName);
+            Canonicalization.update(digest, attributes.size());
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                Canonicalization.update(digest, attribute.getKey());
+                Canonicalization.update(digest, attribute.getValue());
+            }
+            Canonicalization.update(digest, text.size());
+            for (Text segment : text) {
+                Canonicalization.update(digest, segment.position);
+                Canonicalization.update(digest, segment.value);
+            }
+            Canonicalization.update(digest, misc.size());
+            for (Misc node : misc) {
+                Canonicalization.update(digest, node.comment ? 1 : 0);
+                Canonicalization.update(digest, Objects.toString(node.target, ""));
+                Canonicalization.update(digest, node.value);
+            }
+            final List<Digest> childHashes = new ArrayList<>(children.size());
+            for (Element child : children) {
+                childHashes.add(child.hash);
+            }
+            Collections.sort(childHashes);
+            for (Digest childHash : childHashes) {
+                digest.update(childHash.bytes);
+            }
+            hash = new Digest(digest.digest());
+        }
+
+        /**
+         * Compares the subtrees node by node, ignoring the order of the children, so equal digests are never
+         * taken on trust
+         */
+        private boolean deepEquals(Element other) {
+            if (!sameName(other) || !attributes.equals(other.attributes) || !text.equals(other.text)
+                    || !misc.equals(other.misc) || children.size() != other.children.size() || !hash.equals(other.hash)) {
+                return false;
+            }
+            final Map<Digest, Deque<Element>> otherChildren = new HashMap<>();
+            for (Element child : other.children) {
+                otherChildren.computeIfAbsent(child.hash, key -> new ArrayDeque<>()).add(child);
+            }
+            for (Element child : children) {
+                final Deque<Element> candidates = otherChildren.get(child.hash);
+                if (candidates == null || candidates.isEmpty() || !child.deepEquals(candidates.removeFirst())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A trimmed text segment and the number of child elements before it, so mixed content keeps its structure
+     */
+    private static class Text {
+        private final int position;
+        private final String value;
+
+        private Text(int position, String value) {
+            this.position = position;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Text)) {
+                return false;
+            }
+            final Text other = (Text) o;
+            return position == other.position && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * position + value.hashCode();
+        }
+    }
+
+    /**
+     * A comment (without target) or processing instruction, with its trimmed value
+     */
+    private static class Misc {
+        private final boolean comment;
+        private final String target;
+        private final String value;
+
+        private Misc(boolean comment, String target, String value) {
+            this.comment = comment;
+            this.target = target;
+            this.value = value;
+        }
+
+        private String name() {
+            return comment ? "#comment" : target;
+        }
+
+        private String step(int index) {
+            return (comment ? "/comment()[" : "/processing-instruction()[") + index + "]";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Misc)) {
+                return false;
+            }
+            final Misc other = (Misc) o;
+            return comment == other.comment && Objects.equals(target, other.target) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(comment, target, value);
+        }
+
+        @Override
+        public String toString() {
+            return comment ? "<!--" + value + "-->" : "<?" + target + " " + value + "?>";
+        }
+    }
+
+    private static class Digest implements Comparable<Digest> {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        private Digest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Digest && Arrays.equals(bytes, ((Digest) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public int compareTo(Digest other) {
+            for (int i = 0; i < bytes.length; i++) {
+                final int compared = Integer.compare(bytes[i] & 0xff, other.bytes[i] & 0xff);
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package nl.kb.xml.transformassert;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Opens xml inputs as byte streams, so the parser detects the encoding from the xml declaration itself
+ */
+class InputSources {
+    private static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+
+    /**
+     * Opens a file, memory-mapped when it is larger than 16 MB; the caller closes the input stream of the source
+     * @throws IOException when the file cannot be opened
+     */
+    static StreamSource of(Path xmlFile) throws IOException {
+        final InputStream in = Files.size(xmlFile) > MAP_THRESHOLD
+                ? new MappedInputStream(xmlFile)
+                : new BufferedInputStream(Files.newInputStream(xmlFile), 64 * 1024);
+        return new StreamSource(in, xmlFile.toUri().toString());
+    }
+
+    static void close(StreamSource source) {
+        try {
+            source.getInputStream().close();
+        } catch (IOException ignore) {
+        }
+    }
+}
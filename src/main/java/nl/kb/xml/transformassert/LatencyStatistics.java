@@ -0,0 +1,95 @@
+package nl.kb.xml.transformassert;
+
+import java.util.Arrays;
+
+/**
+ * Order statistics and a one-sided Mann-Whitney U test on latency samples
+ */
+class LatencyStatistics {
+
+    private LatencyStatistics() {
+
+    }
+
+    /**
+     * @return the nearest-rank percentile (0 &lt; percentile &lt;= 100) of the samples
+     */
+    static double percentile(double[] samples, double percentile) {
+        final double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    static double median(double[] samples) {
+        final double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        final int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    /**
+     * Mann-Whitney U test of the hypothesis that values from x tend to be larger than values from y, using the
+     * normal approximation with continuity and tie correction
+     * @return the one-sided p-value; small values mean x is significantly larger
+     */
+    static double mannWhitneyGreaterP(double[] x, double[] y) {
+        final int n1 = x.length;
+        final int n2 = y.length;
+        final int n = n1 + n2;
+        final double[] all = new double[n];
+        System.arraycopy(x, 0, all, 0, n1);
+        System.arraycopy(y, 0, all, n1, n2);
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(all[a], all[b]));
+
+        // average ranks over ties
+        final double[] ranks = new double[n];
+        double tieTerm = 0;
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j + 1 < n && all[order[j + 1]] == all[order[i]]) {
+                j++;
+            }
+            final double rank = (i + j) / 2.0 + 1;
+            for (int k = i; k <= j; k++) {
+                ranks[order[k]] = rank;
+            }
+            final int ties = j - i + 1;
+            tieTerm += (double) ties * ties * ties - ties;
+            i = j + 1;
+        }
+
+        double rankSumX = 0;
+        for (int i = 0; i < n1; i++) {
+            rankSumX += ranks[i];
+        }
+        final double u = rankSumX - n1 * (n1 + 1) / 2.0;
+        final double mean = n1 * (double) n2 / 2.0;
+        final double variance = n1 * (double) n2 / 12.0 * ((n + 1) - tieTerm / (n * (double) (n - 1)));
+        if (variance <= 0) {
+            return 1.0;
+        }
+        final double z = (u - mean - 0.5) / Math.sqrt(variance);
+        return 1.0 - normalCdf(z);
+    }
+
+    private static double normalCdf(double z) {
+        return 0.5 * (1 + erf(z / Math.sqrt(2)));
+    }
+
+    /**
+     * Abramowitz and Stegun 7.1.26, accurate to about 1.5e-7
+     */
+    private static double erf(double x) {
+        final double sign = Math.signum(x);
+        final double a = Math.abs(x);
+        final double t = 1 / (1 + 0.3275911 * a);
+        final double polynomial = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+                + t * (-1.453152027 + t * 1.061405429))));
+        return sign * (1 - polynomial * Math.exp(-a * a));
+    }
+}
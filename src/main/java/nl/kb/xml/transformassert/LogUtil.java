@@ -1,20 +1,107 @@
 package nl.kb.xml.transformassert;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.function.Consumer;
 
 class LogUtil {
     static void indent(String lines, int whitespace, Consumer<String> logBack) {
+        try {
+            indent(new StringReader(lines), whitespace, logBack);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        for (String line : lines.split("\\r\\n|\\n|\\r")) {
-            final StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < whitespace; i++) {
-                sb.append(" ");
+    /**
+     * Logs every line read from reader with a prefix of whitespace, without holding more than one line in memory<br>
+     * Lines are split like {@link String#split(String)} on line breaks does: trailing empty lines are dropped.
+     */
+    static void indent(Reader lines, int whitespace, Consumer<String> logBack) throws IOException {
+        final LineIndenter indenter = new LineIndenter(whitespace, logBack);
+        final BufferedReader reader = new BufferedReader(lines);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            indenter.accept(line);
+        }
+        indenter.finish();
+    }
+
+    /**
+     * Logs only the first and the last count lines read from reader, with a line stating how many were omitted
+     */
+    static void indentHeadAndTail(Reader lines, int count, int whitespace, Consumer<String> logBack) throws IOException {
+        final LineIndenter indenter = new LineIndenter(whitespace, logBack);
+        final BufferedReader reader = new BufferedReader(lines);
+        final Deque<String> tail = new ArrayDeque<>(count);
+        long omitted = 0;
+        long read = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (read++ < count) {
+                indenter.accept(line);
+            } else {
+                if (tail.size() == count) {
+                    tail.removeFirst();
+                    omitted++;
+                }
+                tail.addLast(line);
             }
-            logBack.accept(sb.append(line).toString());
         }
+        if (omitted > 0) {
+            indenter.accept(String.format("... (%d lines omitted)", omitted));
+        }
+        for (String tailLine : tail) {
+            indenter.accept(tailLine);
+        }
+        indenter.finish();
     }
 
     static String mkRule(String defaultRule, String[] rule) {
         return rule.length > 0 ? rule[0] : defaultRule;
     }
+
+    private static class LineIndenter {
+        private final StringBuilder sb = new StringBuilder();
+        private final int prefixLength;
+        private final Consumer<String> logBack;
+        private int pendingEmptyLines = 0;
+        private boolean anyLine = false;
+
+        private LineIndenter(int whitespace, Consumer<String> logBack) {
+            for (int i = 0; i < whitespace; i++) {
+                sb.append(" ");
+            }
+            this.prefixLength = whitespace;
+            this.logBack = logBack;
+        }
+
+        private void accept(String line) {
+            anyLine = true;
+            if (line.isEmpty()) {
+                pendingEmptyLines++;
+                return;
+            }
+            for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+                emit("");
+            }
+            emit(line);
+        }
+
+        private void finish() {
+            if (!anyLine) {
+                emit("");
+            }
+        }
+
+        private void emit(String line) {
+            sb.setLength(prefixLength);
+            logBack.accept(sb.append(line).toString());
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package nl.kb.xml.transformassert;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread safe least-recently-used cache with hit/miss counters
+ * @param <K> key type
+ * @param <V> value type, which must be safe to share between threads
+ */
+class LruCache<K, V> {
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private int maximumSize;
+
+    LruCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+        return get(key, value -> true, loader);
+    }
+
+    <E extends Exception> V get(K key, Predicate<V> isFresh, Loader<V, E> loader) throws E {
+        synchronized (this) {
+            final V cached = entries.get(key);
+            if (cached != null && isFresh.test(cached)) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+
+        // load outside of the lock; values are thread safe, so a concurrent duplicate load is harmless
+        final V value = loader.load();
+        synchronized (this) {
+            if (maximumSize > 0) {
+                entries.put(key, value);
+                evictOverflow();
+            }
+        }
+        return value;
+    }
+
+    synchronized void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative");
+        }
+        this.maximumSize = maximumSize;
+        evictOverflow();
+    }
+
+    synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    double getHitRate() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    synchronized void invalidate(Predicate<K> predicate) {
+        entries.keySet().removeIf(predicate);
+    }
+
+    synchronized void invalidateAll() {
+        entries.clear();
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    private void evictOverflow() {
+        final Iterator<K> iterator = entries.keySet().iterator();
+        while (entries.size() > maximumSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+}
@@ -0,0 +1,82 @@
+package nl.kb.xml.transformassert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through memory-mapped chunks, so large outputs can be re-read without a copy on the heap
+ */
+class MappedInputStream extends InputStream {
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private long position = 0;
+    private MappedByteBuffer chunk;
+
+    MappedInputStream(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureChunk()) {
+            return -1;
+        }
+        return chunk.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureChunk()) {
+            return -1;
+        }
+        final int count = Math.min(len, chunk.remaining());
+        chunk.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = Math.max(0, Math.min(n, size - currentPosition()));
+        position = currentPosition() + skipped;
+        chunk = null;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - currentPosition());
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunk = null;
+        channel.close();
+    }
+
+    private long currentPosition() {
+        return chunk == null ? position : position + chunk.position();
+    }
+
+    private boolean ensureChunk() throws IOException {
+        if (chunk != null && chunk.hasRemaining()) {
+            return true;
+        }
+        position = currentPosition();
+        if (position >= size) {
+            chunk = null;
+            return false;
+        }
+        chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+        return true;
+    }
+}
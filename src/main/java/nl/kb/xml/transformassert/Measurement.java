@@ -0,0 +1,57 @@
+package nl.kb.xml.transformassert;
+
+/**
+ * The wall clock time, thread cpu time and allocated bytes of one transformation on the thread which ran it<br>
+ * The cpu time and allocated bytes are -1 when the JVM does not support measuring them.
+ */
+class Measurement {
+    static final Measurement NONE = new Measurement(-1, -1, -1);
+
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+    private Measurement(long wallNanos, long cpuNanos, long allocatedBytes) {
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Starts measuring on the current thread
+     */
+    static Start start() {
+        return new Start();
+    }
+
+    long getWallNanos() {
+        return wallNanos;
+    }
+
+    long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    static class Start {
+        private final long cpuStart = PhaseTimer.cpuTime();
+        private final long allocatedStart = PhaseTimer.allocatedBytes();
+        private final long wallStart = System.nanoTime();
+
+        private Start() {
+        }
+
+        /**
+         * @return the usage since the start, measured on the same thread
+         */
+        Measurement stop() {
+            final long wall = System.nanoTime() - wallStart;
+            final long cpu = cpuStart < 0 ? -1 : PhaseTimer.cpuTime() - cpuStart;
+            final long allocated = allocatedStart < 0 ? -1 : PhaseTimer.allocatedBytes() - allocatedStart;
+            return new Measurement(wall, cpu, allocated);
+        }
+    }
+}
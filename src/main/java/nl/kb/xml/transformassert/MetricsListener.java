@@ -0,0 +1,23 @@
+package nl.kb.xml.transformassert;
+
+/**
+ * Receives the wall time, thread cpu time and allocated bytes of each {@link Phase}<br>
+ * Registered with {@link TransformAssert#setMetricsListener(MetricsListener)}; may be called from several
+ * threads at once.
+ * For instance:
+ * <pre>
+ * final AggregatingMetricsListener metrics = new AggregatingMetricsListener();
+ * TransformAssert.setMetricsListener(metrics);
+ * // run the tests
+ * System.out.println(metrics.toTable());
+ * </pre>
+ */
+@FunctionalInterface
+public interface MetricsListener {
+
+    /**
+     * Called when a phase has completed (also when it failed)
+     * @param metrics the measurements of the phase
+     */
+    void onPhase(PhaseMetrics metrics);
+}
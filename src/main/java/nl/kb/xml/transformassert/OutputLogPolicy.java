@@ -0,0 +1,81 @@
+package nl.kb.xml.transformassert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Determines how much of the transformation output is logged by {@link TransformResults#evaluate()}<br>
+ * For instance:
+ * <pre>
+ * describe(new File("./src/test/resources/5.xslt"))
+ *         .loggingOutput(OutputLogPolicy.headAndTail(20))
+ *         .whenTransforming(new File("./export.xml"))
+ *         .evaluate();
+ * </pre>
+ */
+public final class OutputLogPolicy {
+    private static final OutputLogPolicy ALWAYS = new OutputLogPolicy(false, 0);
+    private static final OutputLogPolicy ON_FAILURE_ONLY = new OutputLogPolicy(true, 0);
+
+    private final boolean onFailureOnly;
+    private final int headAndTailLines;
+
+    private OutputLogPolicy(boolean onFailureOnly, int headAndTailLines) {
+        this.onFailureOnly = onFailureOnly;
+        this.headAndTailLines = headAndTailLines;
+    }
+
+    /**
+     * @return the policy which logs the complete output (default)
+     */
+    public static OutputLogPolicy always() {
+        return ALWAYS;
+    }
+
+    /**
+     * @return the policy which logs the complete output, but only when an assertion failed
+     */
+    public static OutputLogPolicy onFailureOnly() {
+        return ON_FAILURE_ONLY;
+    }
+
+    /**
+     * @param lines the number of lines to log from the start and from the end of the output
+     * @return the policy which logs only the first and last lines of the output
+     */
+    public static OutputLogPolicy headAndTail(int lines) {
+        if (lines < 1) {
+            throw new IllegalArgumentException("lines must be positive");
+        }
+        return new OutputLogPolicy(false, lines);
+    }
+
+    /**
+     * @return this policy, only logging when an assertion failed
+     */
+    public OutputLogPolicy andOnFailureOnly() {
+        return new OutputLogPolicy(true, headAndTailLines);
+    }
+
+    boolean logs(boolean failed) {
+        return failed || !onFailureOnly;
+    }
+
+    void log(TransformOutput output, int whitespace, Consumer<String> logBack) {
+        try (InputStream in = output.openStream();
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            if (headAndTailLines > 0) {
+                LogUtil.indentHeadAndTail(reader, headAndTailLines, whitespace, logBack);
+            } else {
+                LogUtil.indent(reader, whitespace, logBack);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read transformation output", e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package nl.kb.xml.transformassert;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values of one or more XSLT parameters, of which every combination is transformed by
+ * {@link TransformAssertWithTransformer#whenTransformingMatrix(File, ParameterMatrix, AssertionPlan)}<br>
+ * For instance, this matrix holds 2 x 3 = 6 combinations:
+ * <pre>
+ * final ParameterMatrix matrix = ParameterMatrix.parameter("param1", "a", "b")
+ *         .and("param2", "x", "y", "z");
+ * </pre>
+ */
+public final class ParameterMatrix {
+    private final Map<String, List<String>> values;
+
+    private ParameterMatrix(Map<String, List<String>> values) {
+        this.values = values;
+    }
+
+    /**
+     * Starts a matrix with the values of one parameter
+     * @param name the name of the XSLT parameter
+     * @param values the values to transform with
+     * @return a new {@link ParameterMatrix}
+     */
+    public static ParameterMatrix parameter(String name, String... values) {
+        return new ParameterMatrix(Collections.emptyMap()).and(name, values);
+    }
+
+    /**
+     * Adds the values of another parameter, combined with every combination so far
+     * @param name the name of the XSLT parameter
+     * @param values the values to transform with
+     * @return a new {@link ParameterMatrix}, this one is not changed
+     */
+    public ParameterMatrix and(String name, String... values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("no values for parameter " + name);
+        }
+        if (this.values.containsKey(name)) {
+            throw new IllegalArgumentException("duplicate parameter " + name);
+        }
+        final Map<String, List<String>> combined = new LinkedHashMap<>(this.values);
+        combined.put(name, Collections.unmodifiableList(new ArrayList<>(Arrays.asList(values))));
+        return new ParameterMatrix(Collections.unmodifiableMap(combined));
+    }
+
+    /**
+     * @return the parameter names, in the order they were added
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(values.keySet());
+    }
+
+    /**
+     * @return every combination as tuples of XSLT {@link String}-parameters, the last parameter varying fastest
+     */
+    public List<String[]> getCombinations() {
+        List<String[]> combinations = Collections.singletonList(new String[0]);
+        for (Map.Entry<String, List<String>> parameter : values.entrySet()) {
+            final List<String[]> next = new ArrayList<>(combinations.size() * parameter.getValue().size());
+            for (String[] combination : combinations) {
+                for (String value : parameter.getValue()) {
+                    final String[] tuple = Arrays.copyOf(combination, combination.length + 2);
+                    tuple[combination.length] = parameter.getKey();
+                    tuple[combination.length + 1] = value;
+                    next.add(tuple);
+                }
+            }
+            combinations = next;
+        }
+        return combinations;
+    }
+}
@@ -0,0 +1,64 @@
+package nl.kb.xml.transformassert;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import java.io.File;
+
+/**
+ * An xml input parsed once into an immutable Saxon tree, returned by {@link TransformAssert#source(File)}<br>
+ * It can be transformed by any number of stylesheets, parameter sets and threads, as long as they use the same
+ * {@link SaxonEngine}, without parsing the input again:
+ * <pre>
+ * final ParsedSource export = TransformAssert.source(new File("./export.xml"));
+ *
+ * describe(new File("./a.xslt")).whenTransforming(export).hasXpathContaining(...).evaluate();
+ * describe(new File("./b.xslt")).whenTransforming(export, "param1", "value").evaluate();
+ * </pre>
+ */
+public final class ParsedSource {
+    private final XdmNode tree;
+    private final SaxonEngine engine;
+    private final String description;
+
+    ParsedSource(XdmNode tree, SaxonEngine engine, String description) {
+        this.tree = tree;
+        this.engine = engine;
+        this.description = description;
+    }
+
+    /**
+     * @return the path of the parsed file, or a description of the parsed input
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the {@link SaxonEngine} which built the tree
+     */
+    public SaxonEngine getEngine() {
+        return engine;
+    }
+
+    XdmNode getTree() {
+        return tree;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the tree was built by a different Saxon configuration
+     */
+    XdmNode getTree(SaxonEngine transformingEngine) {
+        checkEngine(transformingEngine);
+        return tree;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the tree was built by a different Saxon configuration
+     */
+    void checkEngine(SaxonEngine transformingEngine) {
+        if (transformingEngine.getConfiguration() != engine.getConfiguration()) {
+            throw new IllegalArgumentException(
+                    "The source was parsed with a different SaxonEngine than the stylesheet uses: " + description);
+        }
+    }
+}
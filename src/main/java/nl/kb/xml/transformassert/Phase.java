@@ -0,0 +1,36 @@
+package nl.kb.xml.transformassert;
+
+/**
+ * The phases of which {@link MetricsListener} receives measurements
+ */
+public enum Phase {
+    /**
+     * Compiling a stylesheet (only on a {@link TemplatesCache} miss)
+     */
+    COMPILATION,
+    /**
+     * Running a stylesheet, including validations declared with
+     * {@link TransformAssertWithTransformer#whileValidatingAgainstXSD(java.io.File, String...)}
+     */
+    TRANSFORMATION,
+    /**
+     * Parsing the serialized output into a tree for xpath assertions
+     */
+    PARSING,
+    /**
+     * Evaluating one xpath expression
+     */
+    XPATH,
+    /**
+     * Validating the output against an xsd
+     */
+    VALIDATION,
+    /**
+     * Comparing two outputs, or an output to an expected {@link String}
+     */
+    DIFF,
+    /**
+     * Logging the OUTPUT section in evaluate
+     */
+    LOGGING
+}
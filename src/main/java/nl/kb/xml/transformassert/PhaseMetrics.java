@@ -0,0 +1,70 @@
+package nl.kb.xml.transformassert;
+
+/**
+ * The measurements of one completed {@link Phase}, passed to {@link MetricsListener#onPhase(PhaseMetrics)}
+ */
+public final class PhaseMetrics {
+    private final Phase phase;
+    private final String stylesheet;
+    private final String rule;
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+    PhaseMetrics(Phase phase, String stylesheet, String rule, long wallNanos, long cpuNanos, long allocatedBytes) {
+        this.phase = phase;
+        this.stylesheet = stylesheet;
+        this.rule = rule;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * @return the phase measured
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the path of the stylesheet, or a label for a stylesheet declared as {@link String}
+     */
+    public String getStylesheet() {
+        return stylesheet;
+    }
+
+    /**
+     * @return the rule (or xpath) of the assertion measured, or null for phases not tied to one assertion
+     */
+    public String getRule() {
+        return rule;
+    }
+
+    /**
+     * @return the elapsed wall clock time in nanoseconds
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return the cpu time used by the measuring thread in nanoseconds, or -1 when not supported by the JVM
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * @return the bytes allocated by the measuring thread, or -1 when not supported by the JVM
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s: wall %d ns, cpu %d ns, allocated %d bytes",
+                phase, stylesheet, rule == null ? "" : rule, wallNanos, cpuNanos, allocatedBytes);
+    }
+}
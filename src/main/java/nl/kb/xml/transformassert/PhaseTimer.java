@@ -0,0 +1,77 @@
+package nl.kb.xml.transformassert;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures one {@link Phase} on the current thread and reports it to the registered {@link MetricsListener}<br>
+ * Does nothing when no listener is registered.
+ * <pre>
+ * final PhaseTimer timer = PhaseTimer.start(Phase.XPATH, stylesheet, xPath);
+ * try {
+ *     // ...
+ * } finally {
+ *     timer.stop();
+ * }
+ * </pre>
+ */
+class PhaseTimer {
+    private static final PhaseTimer NONE = new PhaseTimer(null, null, null, null);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+            THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                    ? (com.sun.management.ThreadMXBean) THREADS
+                    : null;
+
+    private static volatile MetricsListener listener;
+
+    private final MetricsListener target;
+    private final Phase phase;
+    private final String stylesheet;
+    private final String rule;
+    private final long wallStart;
+    private final long cpuStart;
+    private final long allocatedStart;
+
+    private PhaseTimer(MetricsListener target, Phase phase, String stylesheet, String rule) {
+        this.target = target;
+        this.phase = phase;
+        this.stylesheet = stylesheet;
+        this.rule = rule;
+        this.cpuStart = target == null ? 0 : cpuTime();
+        this.allocatedStart = target == null ? 0 : allocatedBytes();
+        this.wallStart = target == null ? 0 : System.nanoTime();
+    }
+
+    static PhaseTimer start(Phase phase, String stylesheet, String rule) {
+        final MetricsListener current = listener;
+        return current == null ? NONE : new PhaseTimer(current, phase, stylesheet, rule);
+    }
+
+    static void setListener(MetricsListener metricsListener) {
+        listener = metricsListener;
+    }
+
+    static MetricsListener getListener() {
+        return listener;
+    }
+
+    void stop() {
+        if (target == null) {
+            return;
+        }
+        final long wall = System.nanoTime() - wallStart;
+        final long cpu = cpuStart < 0 ? -1 : cpuTime() - cpuStart;
+        final long allocated = allocatedStart < 0 ? -1 : allocatedBytes() - allocatedStart;
+        target.onPhase(new PhaseMetrics(phase, stylesheet, rule, wall, cpu, allocated));
+    }
+
+    static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    static long allocatedBytes() {
+        return ALLOCATIONS == null ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -1,5 +1,5 @@
 package nl.kb.xml.transformassert;
 
 enum ResultStatus {
-    OK, FAILED
+    OK, FAILED, SKIPPED
 }
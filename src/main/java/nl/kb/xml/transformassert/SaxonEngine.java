@@ -0,0 +1,90 @@
+package nl.kb.xml.transformassert;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.s9api.Processor;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.validation.SchemaFactory;
+import java.io.File;
+
+/**
+ * The Saxon context shared by stylesheet compilation, transformation, xpath evaluation and validation<br>
+ * All of these use the same {@link Configuration} (and so the same name pool and document pool), in stead of
+ * creating a new one per stylesheet or per result.
+ * <p>By default the process-wide instance from {@link #getDefault()} is used. A tuned instance can either be
+ * installed with {@link #setDefault(SaxonEngine)} or passed to
+ * {@link TransformAssert#describe(File, SaxonEngine, java.util.function.Consumer, java.util.function.Consumer)}</p>
+ */
+public class SaxonEngine {
+    private static volatile SaxonEngine defaultEngine = new SaxonEngine();
+
+    private final Configuration configuration;
+    private final Processor processor;
+
+    /**
+     * Creates an engine with a new default Saxon {@link Configuration}
+     */
+    public SaxonEngine() {
+        this(new Configuration());
+    }
+
+    /**
+     * Creates an engine around a custom (tuned) Saxon {@link Configuration}
+     * @param configuration the Saxon {@link Configuration}
+     */
+    public SaxonEngine(Configuration configuration) {
+        this.configuration = configuration;
+        this.processor = new Processor(configuration);
+    }
+
+    /**
+     * Returns the engine used when none is passed explicitly
+     * @return the default {@link SaxonEngine}
+     */
+    public static SaxonEngine getDefault() {
+        return defaultEngine;
+    }
+
+    /**
+     * Replaces the engine used when none is passed explicitly
+     * @param engine the new default {@link SaxonEngine}
+     */
+    public static void setDefault(SaxonEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("engine must not be null");
+        }
+        defaultEngine = engine;
+    }
+
+    /**
+     * @return the underlying Saxon {@link Configuration}
+     */
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the s9api {@link Processor} wrapping the {@link Configuration}
+     */
+    public Processor getProcessor() {
+        return processor;
+    }
+
+    Templates newTemplates(Source xsltSource) throws TransformerConfigurationException {
+        // factories are not thread safe, but cheap to create once the configuration is shared
+        return new TransformerFactoryImpl(configuration).newTemplates(xsltSource);
+    }
+
+    SchemaFactory newSchemaFactory() throws SAXNotRecognizedException, SAXNotSupportedException {
+        final SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        return schemaFactory;
+    }
+}
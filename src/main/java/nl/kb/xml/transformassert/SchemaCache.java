@@ -0,0 +1,182 @@
+package nl.kb.xml.transformassert;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Process-wide, bounded cache of compiled XSD {@link Schema}s<br>
+ * Used by {@link TransformAssertWithTransformResult#validatesAgainstXSD(File, String...)}, so the same
+ * xsd is only read and compiled once.
+ * <p>Schemas are keyed on the canonical path of the xsd. A cached schema is recompiled when the modification time
+ * of the xsd, or of any schema it includes or imports, has changed. Compiled schemas are never shared between
+ * different {@link SaxonEngine}s. The least recently used entry is evicted when the cache is full.</p>
+ */
+public final class SchemaCache {
+    private static final int DEFAULT_MAXIMUM_SIZE = 64;
+    private static final SchemaCache INSTANCE = new SchemaCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final LruCache<Key, Entry> cache;
+
+    private SchemaCache(int maximumSize) {
+        this.cache = new LruCache<>(maximumSize);
+    }
+
+    /**
+     * Returns the process-wide instance of the cache
+     * @return the {@link SchemaCache}
+     */
+    public static SchemaCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum number of compiled schemas to keep, evicting least recently used entries when needed
+     * @param maximumSize the maximum number of entries, 0 disables caching
+     */
+    public void setMaximumSize(int maximumSize) {
+        cache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * @return the maximum number of compiled schemas kept
+     */
+    public int getMaximumSize() {
+        return cache.getMaximumSize();
+    }
+
+    /**
+     * @return the number of compiled schemas currently cached
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups served from the cache
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of lookups which required compiling the schema
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Removes the cached compilation of the given xsd {@link File}
+     * @param xsd the xsd {@link File}
+     */
+    public void invalidate(File xsd) {
+        final String path = canonicalPath(xsd);
+        cache.invalidate(key -> key.path.equals(path));
+    }
+
+    /**
+     * Removes all entries from the cache and resets the counters
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    Schema get(SaxonEngine engine, File xsd) throws SAXException {
+        final String path = canonicalPath(xsd);
+        return cache.get(new Key(engine, path), Entry::isFresh, () -> compile(engine, new File(path))).schema;
+    }
+
+    private static Entry compile(SaxonEngine engine, File xsd) throws SAXException {
+        final Map<File, Long> dependencies = new LinkedHashMap<>();
+        dependencies.put(xsd, xsd.lastModified());
+
+        final SchemaFactory schemaFactory = engine.newSchemaFactory();
+        // only records included and imported schemas: resolution itself is left to the (protected) schema factory
+        schemaFactory.setResourceResolver((type, namespaceURI, publicId, systemId, baseURI) -> {
+            final File dependency = toFile(systemId, baseURI);
+            if (dependency != null) {
+                dependencies.put(dependency, dependency.lastModified());
+            }
+            return null;
+        });
+
+        final Schema schema = schemaFactory.newSchema(new StreamSource(xsd));
+        return new Entry(schema, Collections.unmodifiableMap(dependencies));
+    }
+
+    private static File toFile(String systemId, String baseURI) {
+        if (systemId == null) {
+            return null;
+        }
+        try {
+            final URI uri = baseURI == null ? new URI(systemId) : new URI(baseURI).resolve(systemId);
+            return "file".equals(uri.getScheme()) ? new File(uri) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static final class Entry {
+        private final Schema schema;
+        private final Map<File, Long> dependencies;
+
+        private Entry(Schema schema, Map<File, Long> dependencies) {
+            this.schema = schema;
+            this.dependencies = dependencies;
+        }
+
+        private boolean isFresh() {
+            for (Map.Entry<File, Long> dependency : dependencies.entrySet()) {
+                if (dependency.getKey().lastModified() != dependency.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Key {
+        private final SaxonEngine engine;
+        private final String path;
+
+        private Key(SaxonEngine engine, String path) {
+            this.engine = engine;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return engine == key.engine && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(engine), path);
+        }
+    }
+}
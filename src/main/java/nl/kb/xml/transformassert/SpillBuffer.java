@@ -0,0 +1,100 @@
+package nl.kb.xml.transformassert;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Collects transformation output in memory until it grows beyond a threshold, after which it is moved to a
+ * temporary file, which is deleted when the {@link TransformOutput} is released<br>
+ * An optional copy stream receives every byte as well.
+ */
+class SpillBuffer extends OutputStream {
+    private final long threshold;
+    private final OutputStream copy;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private OutputStream disk;
+    private Path file;
+    private long count = 0;
+
+    SpillBuffer(long threshold, OutputStream copy) {
+        this.threshold = threshold;
+        this.copy = copy;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (copy != null) {
+            copy.write(b, off, len);
+        }
+        count += len;
+        if (disk == null && count > threshold) {
+            spill();
+        }
+        if (disk != null) {
+            disk.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (copy != null) {
+            copy.flush();
+        }
+        if (disk != null) {
+            disk.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (disk != null) {
+            disk.close();
+        }
+    }
+
+    /**
+     * @return the collected output, which must be closed first
+     */
+    TransformOutput toOutput() {
+        return file != null ? TransformOutput.ofTemporary(file) : TransformOutput.of(memory.toByteArray());
+    }
+
+    /**
+     * Closes the buffer and deletes its temporary file, if any, when the transformation failed
+     */
+    void discard() {
+        try {
+            close();
+        } catch (IOException e) {
+            // the output is thrown away anyway
+        }
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // still deleted on exit
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("transform-assert", ".out");
+        // normally deleted as soon as its TransformOutput is released
+        file.toFile().deleteOnExit();
+        disk = new BufferedOutputStream(Files.newOutputStream(file));
+        memory.writeTo(disk);
+        memory = null;
+    }
+}
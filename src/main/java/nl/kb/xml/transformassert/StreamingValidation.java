@@ -0,0 +1,78 @@
+package nl.kb.xml.transformassert;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+import java.io.File;
+
+/**
+ * An xsd validation declared with {@link TransformAssertWithTransformer#whileValidatingAgainstXSD(File, String...)},
+ * which validates the transformation output while it is being produced
+ */
+class StreamingValidation {
+    private final File xsd;
+    private final Schema schema;
+    private final String report;
+
+    StreamingValidation(File xsd, Schema schema, String report) {
+        this.xsd = xsd;
+        this.schema = schema;
+        this.report = report;
+    }
+
+    Run start() throws SAXException {
+        return new Run();
+    }
+
+    /**
+     * One validation of one transformation output; remembers the first error, like
+     * {@link javax.xml.validation.Validator#validate(javax.xml.transform.Source)} would throw it
+     */
+    class Run implements ErrorHandler {
+        private final ValidatorHandler validatorHandler;
+        private SAXParseException error;
+
+        private Run() throws SAXException {
+            validatorHandler = schema.newValidatorHandler();
+            validatorHandler.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            validatorHandler.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+            validatorHandler.setErrorHandler(this);
+        }
+
+        ValidatorHandler getValidatorHandler() {
+            return validatorHandler;
+        }
+
+        File getXsd() {
+            return xsd;
+        }
+
+        String getReport() {
+            return report;
+        }
+
+        SAXParseException getError() {
+            return error;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            if (error == null) {
+                error = exception;
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) {
+            error(exception);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package nl.kb.xml.transformassert;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the downward subset of xpath in one pass over StAX events, without building a tree:
+ * <ul>
+ *     <li>absolute paths of child (<code>/</code>) and descendant (<code>//</code>) steps</li>
+ *     <li>name tests: <code>name</code>, <code>prefix:name</code> and <code>*</code></li>
+ *     <li>predicates: <code>[@attr]</code>, <code>[@attr='value']</code> and a leading position <code>[n]</code></li>
+ *     <li>a last step <code>text()</code> or <code>@attr</code></li>
+ *     <li>wrapped in <code>count(...)</code></li>
+ * </ul>
+ * Other expressions are not compiled, so the caller falls back to the tree based evaluation.
+ * <p>Only the string values of matched elements are kept in memory while they are open.</p>
+ */
+class StreamingXpath {
+    private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+
+    private final String xPath;
+    private final List<Step> steps;
+    private final boolean count;
+
+    private StreamingXpath(String xPath, List<Step> steps, boolean count) {
+        this.xPath = xPath;
+        this.steps = steps;
+        this.count = count;
+    }
+
+    /**
+     * @return the compiled expression, or null when it is not in the streamable subset
+     */
+    static StreamingXpath compile(String xPath, Map<String, String> namespaces) {
+        String expression = xPath.trim();
+        boolean count = false;
+        if (expression.startsWith("count(") && expression.endsWith(")")) {
+            count = true;
+            expression = expression.substring("count(".length(), expression.length() - 1).trim();
+        }
+        try {
+            return new StreamingXpath(xPath, new Parser(expression, namespaces).parse(), count);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    String getXpath() {
+        return xPath;
+    }
+
+    /**
+     * Evaluates all expressions in one pass over the xml
+     * @return per expression the string values of the selected nodes, or the count for <code>count(...)</code>
+     */
+    static Map<StreamingXpath, List<String>> evaluate(InputStream xml, List<StreamingXpath> expressions)
+            throws XMLStreamException {
+        final List<Run> runs = new ArrayList<>();
+        for (StreamingXpath expression : expressions) {
+            runs.add(expression.new Run());
+        }
+
+        final Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(null));
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(xml);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        final Frame parent = frames.peek();
+                        final Frame frame = new Frame(reader.getName());
+                        parent.countChild(frame.name);
+                        for (Run run : runs) {
+                            run.startElement(reader, parent, frame.name);
+                        }
+                        frames.push(frame);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        frames.pop();
+                        for (Run run : runs) {
+                            run.endElement();
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (frames.size() > 1) {
+                            final String text = reader.getText();
+                            for (Run run : runs) {
+                                run.text(text);
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        final Map<StreamingXpath, List<String>> results = new HashMap<>();
+        for (Run run : runs) {
+            results.put(run.getExpression(), run.getResult());
+        }
+        return results;
+    }
+
+    static XMLInputFactory newInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    private enum Axis { CHILD, DESCENDANT }
+
+    private enum Kind { ELEMENT, TEXT, ATTRIBUTE }
+
+    private static class Step {
+        private final Axis axis;
+        private final Kind kind;
+        private final QName name;
+        private final int position;
+        private final List<QName> attributeNames = new ArrayList<>();
+        private final List<String> attributeValues = new ArrayList<>();
+
+        private Step(Axis axis, Kind kind, QName name, int position) {
+            this.axis = axis;
+            this.kind = kind;
+            this.name = name;
+            this.position = position;
+        }
+
+        private boolean matches(XMLStreamReader element, Frame parent, QName elementName) {
+            if (kind != Kind.ELEMENT || (name != null && !name.equals(elementName))) {
+                return false;
+            }
+            if (position > 0 && parent.position(name, elementName) != position) {
+                return false;
+            }
+            for (int i = 0; i < attributeNames.size(); i++) {
+                final QName attributeName = attributeNames.get(i);
+                final String value = element.getAttributeValue(attributeName.getNamespaceURI(),
+                        attributeName.getLocalPart());
+                if (value == null || (attributeValues.get(i) != null && !attributeValues.get(i).equals(value))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An open element, counting its child elements for positional predicates
+     */
+    private static class Frame {
+        private final QName name;
+        private final Map<QName, Integer> childCounts = new HashMap<>();
+        private int childCount = 0;
+
+        private Frame(QName name) {
+            this.name = name;
+        }
+
+        private void countChild(QName childName) {
+            childCount++;
+            childCounts.merge(childName, 1, Integer::sum);
+        }
+
+        private int position(QName nameTest, QName childName) {
+            return nameTest == null ? childCount : childCounts.get(childName);
+        }
+    }
+
+    /**
+     * The evaluation of one expression: per open element the set of steps matched so far
+     */
+    private class Run {
+        private final Deque<BitSet> states = new ArrayDeque<>();
+        private final Deque<Capture> captures = new ArrayDeque<>();
+        private final List<String> items = new ArrayList<>();
+        private long matches = 0;
+
+        private Run() {
+            final BitSet document = new BitSet();
+            document.set(0);
+            states.push(document);
+        }
+
+        private StreamingXpath getExpression() {
+            return StreamingXpath.this;
+        }
+
+        private void startElement(XMLStreamReader element, Frame parent, QName elementName) {
+            final BitSet parentStates = states.peek();
+            final BitSet elementStates = new BitSet();
+            for (int s = parentStates.nextSetBit(0); s >= 0 && s < steps.size(); s = parentStates.nextSetBit(s + 1)) {
+                final Step step = steps.get(s);
+                if (step.matches(element, parent, elementName)) {
+                    elementStates.set(s + 1);
+                }
+                if (step.axis == Axis.DESCENDANT) {
+                    elementStates.set(s);
+                }
+            }
+            states.push(elementStates);
+
+            final Step last = steps.get(steps.size() - 1);
+            if (last.kind == Kind.ELEMENT && elementStates.get(steps.size())) {
+                if (count) {
+                    matches++;
+                } else {
+                    captures.push(new Capture(states.size(), items.size()));
+                    items.add(null);
+                }
+            } else if (last.kind == Kind.ATTRIBUTE && elementStates.get(steps.size() - 1)) {
+                final String value = element.getAttributeValue(last.name.getNamespaceURI(), last.name.getLocalPart());
+                if (value != null) {
+                    add(value);
+                }
+            }
+        }
+
+        private void endElement() {
+            if (!captures.isEmpty() && captures.peek().depth == states.size()) {
+                final Capture capture = captures.pop();
+                items.set(capture.index, capture.value.toString());
+            }
+            states.pop();
+        }
+
+        private void text(String text) {
+            for (Capture capture : captures) {
+                capture.value.append(text);
+            }
+            final Step last = steps.get(steps.size() - 1);
+            if (last.kind == Kind.TEXT && states.peek().get(steps.size() - 1)) {
+                add(text);
+            }
+        }
+
+        private void add(String value) {
+            if (count) {
+                matches++;
+            } else {
+                items.add(value);
+            }
+        }
+
+        private List<String> getResult() {
+            if (count) {
+                final List<String> result = new ArrayList<>();
+                result.add(Long.toString(matches));
+                return result;
+            }
+            return items;
+        }
+    }
+
+    private static class Capture {
+        private final int depth;
+        private final int index;
+        private final StringBuilder value = new StringBuilder();
+
+        private Capture(int depth, int index) {
+            this.depth = depth;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Parses the streamable subset, throwing {@link IllegalArgumentException} for anything else
+     */
+    private static class Parser {
+        private final String expression;
+        private final Map<String, String> namespaces;
+        private int pos = 0;
+
+        private Parser(String expression, Map<String, String> namespaces) {
+            this.expression = expression;
+            this.namespaces = namespaces;
+        }
+
+        private List<Step> parse() {
+            final List<Step> steps = new ArrayList<>();
+            while (pos < expression.length()) {
+                final Axis axis;
+                if (expression.startsWith("//", pos)) {
+                    axis = Axis.DESCENDANT;
+                    pos += 2;
+                } else if (expression.startsWith("/", pos)) {
+                    axis = Axis.CHILD;
+                    pos += 1;
+                } else {
+                    throw new IllegalArgumentException();
+                }
+
+                if (expression.startsWith("text()", pos)) {
+                    pos += "text()".length();
+                    steps.add(new Step(axis, Kind.TEXT, null, 0));
+                    requireEnd(steps);
+                } else if (expression.startsWith("@", pos)) {
+                    pos += 1;
+                    steps.add(new Step(axis, Kind.ATTRIBUTE, attributeName(), 0));
+                    requireEnd(steps);
+                } else {
+                    steps.add(elementStep(axis));
+                }
+            }
+            if (steps.isEmpty()) {
+                throw new IllegalArgumentException();
+            }
+            return steps;
+        }
+
+        private void requireEnd(List<Step> steps) {
+            if (pos != expression.length() || steps.size() < 2 && steps.get(0).axis == Axis.CHILD) {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        private Step elementStep(Axis axis) {
+            final QName name;
+            if (expression.startsWith("*", pos)) {
+                pos += 1;
+                name = null;
+            } else {
+                name = elementName();
+            }
+
+            int position = 0;
+            final List<QName> attributeNames = new ArrayList<>();
+            final List<String> attributeValues = new ArrayList<>();
+            boolean first = true;
+            while (expression.startsWith("[", pos)) {
+                pos += 1;
+                skipWhitespace();
+                if (first && pos < expression.length() && Character.isDigit(expression.charAt(pos))) {
+                    final int start = pos;
+                    while (pos < expression.length() && Character.isDigit(expression.charAt(pos))) {
+                        pos++;
+                    }
+                    position = Integer.parseInt(expression.substring(start, pos));
+                    if (position < 1) {
+                        throw new IllegalArgumentException();
+                    }
+                } else if (expression.startsWith("@", pos)) {
+                    pos += 1;
+                    attributeNames.add(attributeName());
+                    skipWhitespace();
+                    if (expression.startsWith("=", pos)) {
+                        pos += 1;
+                        skipWhitespace();
+                        attributeValues.add(literal());
+                    } else {
+                        attributeValues.add(null);
+                    }
+                } else {
+                    throw new IllegalArgumentException();
+                }
+                skipWhitespace();
+                expect("]");
+                first = false;
+            }
+
+            final Step step = new Step(axis, Kind.ELEMENT, name, position);
+            step.attributeNames.addAll(attributeNames);
+            step.attributeValues.addAll(attributeValues);
+            return step;
+        }
+
+        private QName elementName() {
+            final String first = ncName();
+            if (expression.startsWith(":", pos)) {
+                pos += 1;
+                return new QName(namespaceUri(first), ncName());
+            }
+            return new QName(XMLConstants.NULL_NS_URI, first);
+        }
+
+        private QName attributeName() {
+            // an unprefixed attribute is in no namespace
+            return elementName();
+        }
+
+        private String namespaceUri(String prefix) {
+            final String uri = namespaces.get(prefix);
+            if (uri == null) {
+                throw new IllegalArgumentException();
+            }
+            return uri;
+        }
+
+        private String ncName() {
+            final int start = pos;
+            while (pos < expression.length() && isNameChar(expression.charAt(pos), pos == start)) {
+                pos++;
+            }
+            if (pos == start) {
+                throw new IllegalArgumentException();
+            }
+            return expression.substring(start, pos);
+        }
+
+        private String literal() {
+            if (pos >= expression.length()) {
+                throw new IllegalArgumentException();
+            }
+            final char quote = expression.charAt(pos);
+            if (quote != '\'' && quote != '"') {
+                throw new IllegalArgumentException();
+            }
+            final int end = expression.indexOf(quote, pos + 1);
+            if (end < 0) {
+                throw new IllegalArgumentException();
+            }
+            final String value = expression.substring(pos + 1, end);
+            pos = end + 1;
+            return value;
+        }
+
+        private void expect(String token) {
+            if (!expression.startsWith(token, pos)) {
+                throw new IllegalArgumentException();
+            }
+            pos += token.length();
+        }
+
+        private void skipWhitespace() {
+            while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private static boolean isNameChar(char c, boolean first) {
+            return Character.isLetter(c) || c == '_'
+                    || !first && (Character.isDigit(c) || c == '-' || c == '.');
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package nl.kb.xml.transformassert;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+/**
+ * Process-wide, bounded cache of compiled XSLT stylesheets ({@link Templates})<br>
+ * Used by {@link TransformAssert#describe(File)} and {@link TransformAssertWithTransformer#whenComparingTo(File)}
+ * so the same stylesheet is only compiled by Saxon once.
+ * <p>Stylesheet files are keyed on their canonical path plus modification time, stylesheet {@link String}s
+ * on a hash of their content. Compilations are never shared between different {@link SaxonEngine}s.
+ * The least recently used entry is evicted when the cache is full.</p>
+ * <p>Note that changes in stylesheets <i>imported</i> by a cached stylesheet are not detected:
+ * use {@link #invalidate(File)} or {@link #invalidateAll()} in that case.</p>
+ */
+public final class TemplatesCache {
+    private static final int DEFAULT_MAXIMUM_SIZE = 64;
+    private static final TemplatesCache INSTANCE = new TemplatesCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final LruCache<Key, Templates> cache;
+
+    private TemplatesCache(int maximumSize) {
+        this.cache = new LruCache<>(maximumSize);
+    }
+
+    /**
+     * Returns the process-wide instance of the cache
+     * @return the {@link TemplatesCache}
+     */
+    public static TemplatesCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum number of compiled stylesheets to keep, evicting least recently used entries when needed
+     * @param maximumSize the maximum number of entries, 0 disables caching
+     */
+    public void setMaximumSize(int maximumSize) {
+        cache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * @return the maximum number of compiled stylesheets kept
+     */
+    public int getMaximumSize() {
+        return cache.getMaximumSize();
+    }
+
+    /**
+     * @return the number of compiled stylesheets currently cached
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups served from the cache
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of lookups which required compiling the stylesheet
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return the number of entries evicted because the cache was full
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * Removes all cached compilations of the given xslt {@link File}, regardless of modification time
+     * @param xsltFile the xslt {@link File}
+     */
+    public void invalidate(File xsltFile) {
+        final String id = canonicalPath(xsltFile);
+        cache.invalidate(key -> key.id.equals(id));
+    }
+
+    /**
+     * Removes the cached compilation of the given xslt {@link String}
+     * @param xslt the xslt {@link String}
+     */
+    public void invalidate(String xslt) {
+        final String id = contentHash(xslt);
+        cache.invalidate(key -> key.id.equals(id));
+    }
+
+    /**
+     * Removes all entries from the cache and resets the counters
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    Templates get(SaxonEngine engine, File xsltFile, LruCache.Loader<Templates, TransformerConfigurationException> loader)
+            throws TransformerConfigurationException {
+        return cache.get(new Key(engine, canonicalPath(xsltFile), xsltFile.lastModified()), loader);
+    }
+
+    Templates get(SaxonEngine engine, String xslt, LruCache.Loader<Templates, TransformerConfigurationException> loader)
+            throws TransformerConfigurationException {
+        return cache.get(new Key(engine, contentHash(xslt), 0L), loader);
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static String contentHash(String xslt) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(xslt.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder("sha256:");
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Key {
+        private final SaxonEngine engine;
+        private final String id;
+        private final long lastModified;
+
+        private Key(SaxonEngine engine, String id, long lastModified) {
+            this.engine = engine;
+            this.id = id;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return engine == key.engine && lastModified == key.lastModified && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(engine), id, lastModified);
+        }
+    }
+}
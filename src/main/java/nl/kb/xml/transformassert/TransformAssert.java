@@ -1,13 +1,13 @@
 package nl.kb.xml.transformassert;
 
+import net.sf.saxon.s9api.SaxonApiException;
+
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.function.Consumer;
 
 /**
@@ -31,11 +31,25 @@ public class TransformAssert {
      */
     public static TransformAssertWithTransformer describe(File xsltFile, Consumer<String> logBack, Consumer<String> transformationOutput)
             throws TransformerException {
+        return describe(xsltFile, SaxonEngine.getDefault(), logBack, transformationOutput);
+    }
+
+    /**
+     * Declares the xslt file to be tested, compiled and transformed using a custom {@link SaxonEngine}
+     * @param xsltFile the xslt {@link File}
+     * @param engine the {@link SaxonEngine} to use
+     * @param logBack custom {@link String} {@link Consumer} for log messages
+     * @param transformationOutput custom {@link String} {@link Consumer} for the xslt transformation output
+     * @return instance of {@link TransformAssertWithTransformer}
+     * @throws TransformerException when the xslt cannot be parsed by Saxon
+     */
+    public static TransformAssertWithTransformer describe(File xsltFile, SaxonEngine engine, Consumer<String> logBack,
+                                                          Consumer<String> transformationOutput)
+            throws TransformerException {
         final TransformAssertWithTransformer transformAssertWithTransformer =
-                new TransformAssertWithTransformer(logBack, transformationOutput);
+                new TransformAssertWithTransformer(engine, logBack, transformationOutput);
 
-        transformAssertWithTransformer.setXsltSource(new StreamSource(xsltFile));
-        transformAssertWithTransformer.setXsltPath(xsltFile.getAbsolutePath());
+        transformAssertWithTransformer.setXsltFile(xsltFile);
 
         return transformAssertWithTransformer;
     }
@@ -51,12 +65,26 @@ public class TransformAssert {
      */
     public static TransformAssertWithTransformer describe(String xslt, Consumer<String> logBack, Consumer<String> transformationOutput)
             throws UnsupportedEncodingException, TransformerException {
+        return describe(xslt, SaxonEngine.getDefault(), logBack, transformationOutput);
+    }
+
+    /**
+     * Declares the xslt {@link String} to be tested, compiled and transformed using a custom {@link SaxonEngine}
+     * @param xslt the xslt {@link String}
+     * @param engine the {@link SaxonEngine} to use
+     * @param logBack custom {@link String} {@link Consumer} for log messages
+     * @param transformationOutput custom {@link String} {@link Consumer} for the xslt transformation output
+     * @return instance of {@link TransformAssertWithTransformer}
+     * @throws UnsupportedEncodingException when the character set of the xslt {@link String} ia not supported
+     * @throws TransformerException when the xslt cannot be parsed by Saxon
+     */
+    public static TransformAssertWithTransformer describe(String xslt, SaxonEngine engine, Consumer<String> logBack,
+                                                          Consumer<String> transformationOutput)
+            throws UnsupportedEncodingException, TransformerException {
 
         final TransformAssertWithTransformer transformAssertWithTransformer =
-                new TransformAssertWithTransformer(logBack, transformationOutput);
-        final Reader reader = new InputStreamReader(new ByteArrayInputStream(xslt.getBytes()), StandardCharsets.UTF_8.name());
+                new TransformAssertWithTransformer(engine, logBack, transformationOutput);
 
-        transformAssertWithTransformer.setXsltSource(new StreamSource(reader));
         transformAssertWithTransformer.setXsltString(xslt);
 
         return transformAssertWithTransformer;
@@ -119,5 +147,81 @@ public class TransformAssert {
         return describe(xslt, System.out::println);
     }
 
+    /**
+     * Parses an xml file once into an immutable tree, which can be transformed by any number of stylesheets,
+     * parameter sets and threads without parsing it again
+     * (see {@link TransformAssertWithTransformer#whenTransforming(ParsedSource, String...)})
+     * @param xmlFile the xml {@link File}
+     * @return the {@link ParsedSource}
+     * @throws IOException when the xml file cannot be read
+     * @throws TransformerException when the xml file cannot be parsed by Saxon
+     */
+    public static ParsedSource source(File xmlFile) throws IOException, TransformerException {
+        return source(xmlFile.toPath(), SaxonEngine.getDefault());
+    }
+
+    /**
+     * Parses an xml file once into an immutable tree
+     * @param xmlFile the {@link Path} of the xml file
+     * @return the {@link ParsedSource}
+     * @throws IOException when the xml file cannot be read
+     * @throws TransformerException when the xml file cannot be parsed by Saxon
+     */
+    public static ParsedSource source(Path xmlFile) throws IOException, TransformerException {
+        return source(xmlFile, SaxonEngine.getDefault());
+    }
+
+    /**
+     * Parses an xml file once into an immutable tree, for stylesheets using a custom {@link SaxonEngine}
+     * @param xmlFile the {@link Path} of the xml file
+     * @param engine the {@link SaxonEngine} of the stylesheets which will transform the tree
+     * @return the {@link ParsedSource}
+     * @throws IOException when the xml file cannot be read
+     * @throws TransformerException when the xml file cannot be parsed by Saxon
+     */
+    public static ParsedSource source(Path xmlFile, SaxonEngine engine) throws IOException, TransformerException {
+        final StreamSource source = InputSources.of(xmlFile);
+        final String description = xmlFile.toAbsolutePath().toString();
+        final PhaseTimer timer = PhaseTimer.start(Phase.PARSING, description, null);
+        try {
+            return new ParsedSource(engine.getProcessor().newDocumentBuilder().build(source), engine, description);
+        } catch (SaxonApiException e) {
+            throw new TransformerException(e.getMessage(), e);
+        } finally {
+            timer.stop();
+            InputSources.close(source);
+        }
+    }
+
+    /**
+     * Declares whether all describe chains stop at the first failed assertion, unless they declare otherwise with
+     * {@link TransformAssertWithTransformer#failingFast(boolean)}
+     * @param failFast true to stop at the first failure; false by default
+     */
+    public static void setFailFast(boolean failFast) {
+        TransformAssertWithTransformer.setFailingFastByDefault(failFast);
+    }
+
+    /**
+     * @return whether describe chains stop at the first failed assertion by default
+     */
+    public static boolean isFailFast() {
+        return TransformAssertWithTransformer.isFailingFastByDefault();
+    }
+
+    /**
+     * Registers the {@link MetricsListener} which receives the timing and allocation of each {@link Phase},
+     * for all stylesheets
+     * @param metricsListener the {@link MetricsListener}, or null to stop measuring
+     */
+    public static void setMetricsListener(MetricsListener metricsListener) {
+        PhaseTimer.setListener(metricsListener);
+    }
 
+    /**
+     * @return the registered {@link MetricsListener}, or null when none is registered
+     */
+    public static MetricsListener getMetricsListener() {
+        return PhaseTimer.getListener();
+    }
 }
@@ -1,66 +1,108 @@
 package nl.kb.xml.transformassert;
 
+import net.sf.saxon.s9api.SaxonApiException;
 import org.xml.sax.SAXException;
 
 import javax.xml.XMLConstants;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import static nl.kb.xml.transformassert.ResultStatus.FAILED;
 import static nl.kb.xml.transformassert.ResultStatus.OK;
+import static nl.kb.xml.transformassert.ResultStatus.SKIPPED;
 
 /**
  * An instance of this class is returned by {@link TransformAssertWithTransformer#whenTransforming(File, String...)}
  * <p>It exposes methods to do assertions on the contents of the output of the XSLT under test</p>
  */
 public class TransformAssertWithTransformResult implements TransformResults {
+    private static final int EXCERPT_BYTES = 1024;
 
-    private final byte[] transformationOutput;
+    private final TransformOutput transformationOutput;
     private final List<AssertionError> errors = new ArrayList<>();
     private final Consumer<String> logBack;
     private final Consumer<String> outputConsumer;
+    private final OutputLogPolicy outputLogPolicy;
     private final List<TransformerException> errorsAndWarnings;
     private final XpathEvaluator xpathEvaluator;
+    private final SaxonEngine engine;
+    private final String stylesheet;
+    private final boolean deferring;
+    private final boolean failFast;
+    private final List<DeferredCheck> deferredChecks = new ArrayList<>();
+
+
+    TransformAssertWithTransformResult(TransformAssertWithTransformer transformAssertWithTransformer,
+                                       TransformOutput transformationOutput, String source, Consumer<String> logBack) {
+        this(transformAssertWithTransformer, transformationOutput, logBack);
+        initialize(transformAssertWithTransformer, source);
+        reportStreamingValidations();
+    }
 
-
-    TransformAssertWithTransformResult(TransformAssertWithTransformer transformAssertWithTransformer, byte[] transformationOutput) {
+    private TransformAssertWithTransformResult(TransformAssertWithTransformer transformAssertWithTransformer,
+                                               TransformOutput transformationOutput, Consumer<String> logBack) {
         this.transformationOutput = transformationOutput;
-        this.logBack = transformAssertWithTransformer.getLogBack();
+        this.logBack = logBack;
         this.outputConsumer = transformAssertWithTransformer.getTransformationOutput();
-        this.errorsAndWarnings = transformAssertWithTransformer.getErrorsAndWarnings();
-        xpathEvaluator = new XpathEvaluator(transformationOutput);
-        initialize(transformAssertWithTransformer);
+        this.outputLogPolicy = transformAssertWithTransformer.getOutputLogPolicy();
+        this.errorsAndWarnings = transformationOutput.getWarnings();
+        this.engine = transformAssertWithTransformer.getEngine();
+        this.stylesheet = transformAssertWithTransformer.getStylesheet();
+        this.deferring = transformAssertWithTransformer.isDeferringAssertions();
+        this.failFast = transformAssertWithTransformer.isFailingFast();
+        xpathEvaluator = new XpathEvaluator(transformationOutput, engine, stylesheet);
+        if (transformAssertWithTransformer.isStreamingXpath()) {
+            xpathEvaluator.enableStreaming();
+        }
     }
 
     private TransformAssertWithTransformResult(byte[] xml, Consumer<String> logBack) {
-        transformationOutput = xml;
+        transformationOutput = TransformOutput.of(xml);
         this.logBack = logBack;
         outputConsumer = null;
+        outputLogPolicy = OutputLogPolicy.always();
         errorsAndWarnings = new ArrayList<>();
-        xpathEvaluator = new XpathEvaluator(transformationOutput);
+        engine = SaxonEngine.getDefault();
+        stylesheet = "xml";
+        deferring = false;
+        failFast = TransformAssertWithTransformer.isFailingFastByDefault();
+        xpathEvaluator = new XpathEvaluator(transformationOutput, engine, stylesheet);
         logBack.accept("DESCRIBING XML");
         logBack.accept(System.lineSeparator() + "IT SHOULD:");
     }
 
+    /**
+     * Creates a result which logs nothing, for runs over many inputs which only report the failed rules
+     */
+    static TransformAssertWithTransformResult unlogged(TransformAssertWithTransformer transformAssertWithTransformer,
+                                                       TransformOutput transformationOutput) {
+        final TransformAssertWithTransformResult result = new TransformAssertWithTransformResult(
+                transformAssertWithTransformer, transformationOutput, line -> { });
+        result.reportStreamingValidations();
+        return result;
+    }
+
     /**
      * Declares an XML (as byte array) to do assertions on directly
      * @param xml the xml as {@link byte[]}
@@ -100,23 +142,42 @@ public class TransformAssertWithTransformResult implements TransformResults {
      * @throws UnsupportedEncodingException when UTF-8 is not supported
      */
     public TransformAssertWithTransformResult isEqualto(String expected, String... rule) throws UnsupportedEncodingException {
-        final String stringResult = new String(transformationOutput, StandardCharsets.UTF_8.name());
-
         final String report = LogUtil.mkRule("EQUAL: " + expected, rule);
 
-        if (!stringResult.equals(expected)) {
-            errors.add(new AssertionError(String.format(
-                    report + System.lineSeparator() +
-                            "  Expected output to equal: '%s'" + System.lineSeparator() +
-                            "  But got: '%s'" + System.lineSeparator()
-                    , expected, stringResult
-            )));
-            LogUtil.indent(String.format("%s (%s)", report, FAILED), 2, logBack);
-        } else {
-            LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
-        }
+        return check(report, null, null, () -> {
+            final long mismatch;
+            final PhaseTimer timer = PhaseTimer.start(Phase.DIFF, stylesheet, report);
+            try {
+                mismatch = mismatch(expected);
+            } finally {
+                timer.stop();
+            }
 
-        return this;
+            if (mismatch >= 0) {
+                // a file-backed output may be too large for the heap, so only the part around the mismatch is read
+                final String stringResult = transformationOutput.isFileBacked()
+                        ? excerpt(mismatch)
+                        : new String(transformationOutput.getBytes(), StandardCharsets.UTF_8.name());
+                return Outcome.failed(new AssertionError(String.format(
+                        report + System.lineSeparator() +
+                                "  Expected output to equal: '%s'" + System.lineSeparator() +
+                                "  But got: '%s'" + System.lineSeparator()
+                        , expected, stringResult
+                )));
+            }
+            return Outcome.OK;
+        });
+    }
+
+    /**
+     * Decodes at most {@link #EXCERPT_BYTES} of the output, starting a little before offset
+     */
+    private String excerpt(long offset) {
+        try {
+            return transformationOutput.excerpt(Math.max(0, offset - EXCERPT_BYTES / 4), EXCERPT_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private TransformAssertWithTransformResult matchXPath(String xPath, Object expected, boolean negate, String... rule)
@@ -124,41 +185,42 @@ public class TransformAssertWithTransformResult implements TransformResults {
         final String finalRule = LogUtil.mkRule(
                 (negate ? "NOT MATCH XPATH " : "MATCH XPATH ") + xPath + "='" + expected + "'"
                 , rule);
-        try {
 
+        // deferred checks run later, so they keep the namespaces declared so far
+        final Map<String, String> namespaces = xpathEvaluator.getNamespaces();
+        return check(finalRule, xPath, namespaces, () -> {
             try {
-                xpathEvaluator.loadDocument();
-            } catch (IOException | ParserConfigurationException | SAXException e) {
-                errors.add(new AssertionError("Got unparsable XML output from stylesheet"));
-                return this;
-            }
-
-            final List<Object> xpathResult = expected instanceof Integer
-                    ? xpathEvaluator.getXpathResult(xPath, XPathConstants.NUMBER)
-                    : xpathEvaluator.getXpathResult(xPath);
-
-            if (xpathResult.contains(expected) == negate) {
-                final String actual = xpathResult.size() == 1
-                        ? "" + xpathResult.get(0)
-                        : xpathResult.size() == 0
-                        ? ""
-                        : "any of: " + xpathResult;
-                errors.add(new AssertionError(String.format(
-                        finalRule + System.lineSeparator() +
-                                "  Expected xpath %s%sto match: '%s'" + System.lineSeparator() +
-                                "  But got: '%s'" + System.lineSeparator()
-                        , xPath, negate ? " NOT " : " ", expected, actual
-                )));
 
-                LogUtil.indent(String.format("%s (%s)", finalRule, FAILED), 2, logBack);
-            } else {
-                LogUtil.indent(String.format("%s (%s)", finalRule, OK), 2, logBack);
+                try {
+                    if (xpathEvaluator.needsDocument(xPath, namespaces)) {
+                        xpathEvaluator.loadDocument();
+                    }
+                } catch (SaxonApiException e) {
+                    return Outcome.unlogged(new AssertionError("Got unparsable XML output from stylesheet"));
+                }
+
+                final List<Object> xpathResult = expected instanceof Integer
+                        ? xpathEvaluator.getXpathResult(xPath, XPathConstants.NUMBER, namespaces)
+                        : xpathEvaluator.getXpathResult(xPath, XPathConstants.NODESET, namespaces);
+
+                if (xpathResult.contains(expected) == negate) {
+                    final String actual = xpathResult.size() == 1
+                            ? "" + xpathResult.get(0)
+                            : xpathResult.size() == 0
+                            ? ""
+                            : "any of: " + xpathResult;
+                    return Outcome.failed(new AssertionError(String.format(
+                            finalRule + System.lineSeparator() +
+                                    "  Expected xpath %s%sto match: '%s'" + System.lineSeparator() +
+                                    "  But got: '%s'" + System.lineSeparator()
+                            , xPath, negate ? " NOT " : " ", expected, actual
+                    )));
+                }
+                return Outcome.OK;
+            } catch (XPathExpressionException e) {
+                throw new XPathExpressionException("Failed to evaluate xpath expression '" + xPath + "' for rule '" + finalRule + "'");
             }
-        } catch (XPathExpressionException e) {
-            throw new XPathExpressionException("Failed to evaluate xpath expression '" + xPath + "' for rule '" + finalRule + "'");
-        }
-
-        return this;
+        });
     }
 
     /**
@@ -199,37 +261,189 @@ public class TransformAssertWithTransformResult implements TransformResults {
      * @throws SAXException when the xsd file cannot be parsed by Saxon
      */
     public TransformAssertWithTransformResult validatesAgainstXSD(File xsd, String... rule) throws UnsupportedEncodingException, FileNotFoundException, SAXException {
-        final Reader xmlReader = new InputStreamReader(new ByteArrayInputStream(transformationOutput), StandardCharsets.UTF_8.name());
-        final Reader xsdReader = new InputStreamReader(new FileInputStream(xsd), StandardCharsets.UTF_8.name());
-        final Source xmlSource = new StreamSource(xmlReader);
-        final Source xsdSource = new StreamSource(xsdReader);
-        final SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-        schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-        final Schema schema = schemaFactory.newSchema(xsdSource);
-
-        final Validator validator = schema.newValidator();
-        validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-        validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-
+        if (!xsd.isFile()) {
+            throw new FileNotFoundException(xsd.getAbsolutePath());
+        }
         final String report = LogUtil.mkRule("VALIDATE AGAINST XSD: " + xsd.getAbsolutePath(), rule);
 
+        return check(report, null, null, () -> {
+            final Schema schema = SchemaCache.getInstance().get(engine, xsd);
+
+            final Validator validator = schema.newValidator();
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+
+            final PhaseTimer timer = PhaseTimer.start(Phase.VALIDATION, stylesheet, report);
+            try (Reader xmlReader = new InputStreamReader(transformationOutput.openStream(), StandardCharsets.UTF_8.name())) {
+                validator.validate(new StreamSource(xmlReader));
+                return Outcome.OK;
+            } catch (Exception e) {
+                return Outcome.failed(validationError(xsd, report, e));
+            } finally {
+                timer.stop();
+            }
+        });
+    }
+
+    /**
+     * Asserts that the transformation took at most the given thread cpu time (or wall clock time, when the JVM
+     * cannot measure cpu time)<br>
+     * Combine with {@link TransformAssertWithTransformer#warmingUp(int)} to measure a warmed-up JVM.
+     * @param max the maximum {@link Duration}
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     */
+    public TransformAssertWithTransformResult completesWithin(Duration max, String... rule) {
+        final String report = LogUtil.mkRule("COMPLETES WITHIN " + max.toMillis() + " ms", rule);
+        final Measurement measurement = transformationOutput.getMeasurement();
+
+        return check(report, null, null, () -> {
+            final boolean cpu = measurement.getCpuNanos() >= 0;
+            final long took = cpu ? measurement.getCpuNanos() : measurement.getWallNanos();
+            if (took > max.toNanos()) {
+                return Outcome.failed(new AssertionError(String.format(
+                        report + System.lineSeparator() +
+                                "  Expected transformation to complete within: %d ms %s" + System.lineSeparator() +
+                                "  But took: %.1f ms %s (%.1f ms wall clock)" + System.lineSeparator()
+                        , max.toMillis(), cpu ? "cpu time" : "wall clock"
+                        , took / 1e6, cpu ? "cpu time" : "wall clock", measurement.getWallNanos() / 1e6
+                )));
+            }
+            return Outcome.OK;
+        });
+    }
+
+    /**
+     * Asserts that the transformation allocated at most the given number of bytes on the heap, as measured by
+     * the {@link java.lang.management.ThreadMXBean} of the JVM
+     * @param bytes the maximum number of bytes
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     */
+    public TransformAssertWithTransformResult allocatesAtMost(long bytes, String... rule) {
+        final String report = LogUtil.mkRule("ALLOCATES AT MOST " + bytes + " BYTES", rule);
+        final Measurement measurement = transformationOutput.getMeasurement();
+
+        return check(report, null, null, () -> {
+            if (measurement.getAllocatedBytes() < 0) {
+                return Outcome.failed(new AssertionError(report + System.lineSeparator() +
+                        "  This JVM cannot measure allocated bytes per thread" + System.lineSeparator()));
+            }
+            if (measurement.getAllocatedBytes() > bytes) {
+                return Outcome.failed(new AssertionError(String.format(
+                        report + System.lineSeparator() +
+                                "  Expected transformation to allocate at most: %d bytes" + System.lineSeparator() +
+                                "  But allocated: %d bytes" + System.lineSeparator()
+                        , bytes, measurement.getAllocatedBytes()
+                )));
+            }
+            return Outcome.OK;
+        });
+    }
+
+    private long mismatch(String expected) throws UnsupportedEncodingException {
         try {
-            validator.validate(xmlSource);
-            LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
-        } catch (Exception e) {
-            errors.add(new AssertionError(String.format(
-                    report + System.lineSeparator() +
-                            "  Expected output to validate against XSD: %s" + System.lineSeparator() +
-                            "  But got: %s" + System.lineSeparator(),
-                    xsd.getAbsolutePath(),
-                    e.getMessage()
-            )));
-            LogUtil.indent(String.format("%s (%s)", report, FAILED), 2, logBack);
+            return transformationOutput.mismatch(expected.getBytes(StandardCharsets.UTF_8.name()));
+        } catch (UnsupportedEncodingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void reportStreamingValidations() {
+        for (StreamingValidation.Run validation : transformationOutput.getValidations()) {
+            reportValidation(validation.getXsd(), validation.getReport(), validation.getError());
+        }
+    }
+
+    private void reportValidation(File xsd, String report, Exception e) {
+        record(report, e == null ? Outcome.OK : Outcome.failed(validationError(xsd, report, e)));
+    }
+
+    private static AssertionError validationError(File xsd, String report, Exception e) {
+        return new AssertionError(String.format(
+                report + System.lineSeparator() +
+                        "  Expected output to validate against XSD: %s" + System.lineSeparator() +
+                        "  But got: %s" + System.lineSeparator(),
+                xsd.getAbsolutePath(),
+                e.getMessage()
+        ));
+    }
+
+    /**
+     * Runs an assertion right away, or adds it to the plan executed by evaluate when deferring assertions
+     */
+    private <E extends Exception> TransformAssertWithTransformResult check(String report, String xPath,
+                                                                           Map<String, String> namespaces,
+                                                                           Check<E> check) throws E {
+        if (deferring) {
+            deferredChecks.add(new DeferredCheck(report, xPath, namespaces, check));
+        } else if (failFast && !errors.isEmpty()) {
+            record(report, Outcome.SKIPPED);
+        } else {
+            record(report, check.run());
         }
         return this;
     }
 
+    /**
+     * Runs the deferred assertions concurrently; each distinct xpath is evaluated once on a tree parsed once,
+     * and the output is not parsed at all without xpath assertions. The outcomes are recorded in chain order.
+     * When failing fast, all assertions after the first failure in chain order are reported as skipped, whatever
+     * order they ran in; the ones which did not start yet are not run at all.
+     */
+    private void runDeferredChecks() {
+        if (xpathEvaluator.isStreaming()) {
+            final Map<Map<String, String>, List<String>> xPaths = new LinkedHashMap<>();
+            for (DeferredCheck deferredCheck : deferredChecks) {
+                if (deferredCheck.xPath != null) {
+                    xPaths.computeIfAbsent(deferredCheck.namespaces, key -> new ArrayList<>()).add(deferredCheck.xPath);
+                }
+            }
+            try {
+                for (Map.Entry<Map<String, String>, List<String>> declared : xPaths.entrySet()) {
+                    xpathEvaluator.prefetch(declared.getValue(), declared.getKey());
+                }
+            } catch (XPathExpressionException e) {
+                // reported by the xpath assertions themselves
+            }
+        }
+
+        // the chain index of the first failed assertion; only the assertions after it may be left out
+        final AtomicInteger firstFailure = new AtomicInteger(failFast && !errors.isEmpty() ? -1 : Integer.MAX_VALUE);
+        final List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+        for (int i = 0; i < deferredChecks.size(); i++) {
+            final int index = i;
+            final DeferredCheck deferredCheck = deferredChecks.get(i);
+            outcomes.add(CompletableFuture.supplyAsync(() -> {
+                if (failFast && firstFailure.get() < index) {
+                    return Outcome.SKIPPED;
+                }
+                final Outcome outcome = deferredCheck.run();
+                if (outcome.error != null) {
+                    firstFailure.accumulateAndGet(index, Math::min);
+                }
+                return outcome;
+            }, ForkJoinPool.commonPool()));
+        }
+        for (int i = 0; i < deferredChecks.size(); i++) {
+            final Outcome outcome = outcomes.get(i).join();
+            record(deferredChecks.get(i).report, failFast && !errors.isEmpty() ? Outcome.SKIPPED : outcome);
+        }
+        deferredChecks.clear();
+    }
+
+    private void record(String report, Outcome outcome) {
+        if (outcome.error != null) {
+            errors.add(outcome.error);
+        }
+        if (outcome.logged) {
+            LogUtil.indent(String.format("%s (%s)", report,
+                    outcome == Outcome.SKIPPED ? SKIPPED : outcome.error == null ? OK : FAILED), 2, logBack);
+        }
+    }
+
     /**
      * Asserts that the output of the xslt transformation is equal to {@link String}
      * @param expected the expected {@link String} value
@@ -267,6 +481,26 @@ public class TransformAssertWithTransformResult implements TransformResults {
         return doesNothaveXpathContaining(xPath, expected, rule);
     }
 
+    /**
+     * Asserts that the transformation took at most the given thread cpu time
+     * @param max the maximum {@link Duration}
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     */
+    public TransformAssertWithTransformResult andCompletesWithin(Duration max, String... rule) {
+        return completesWithin(max, rule);
+    }
+
+    /**
+     * Asserts that the transformation allocated at most the given number of bytes on the heap
+     * @param bytes the maximum number of bytes
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     */
+    public TransformAssertWithTransformResult andAllocatesAtMost(long bytes, String... rule) {
+        return allocatesAtMost(bytes, rule);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -318,16 +552,43 @@ public class TransformAssertWithTransformResult implements TransformResults {
      */
     @Override
     public void evaluate(boolean listXsltWarnings, Consumer<String> failureConsumer) throws UnsupportedEncodingException {
-        if (outputConsumer == null) {
-            logBack.accept(System.lineSeparator() + "OUTPUT:");
+        try {
+            evaluateAndLog(listXsltWarnings);
+        } finally {
+            transformationOutput.release();
+            BufferedLogBack.flush(logBack);
         }
+    }
 
-        final Consumer<String> outConsumer = outputConsumer == null ? logBack : outputConsumer;
-        final int indent = outputConsumer == null ? 2 : 0;
-        LogUtil.indent(new String(transformationOutput, StandardCharsets.UTF_8.name()), indent, outConsumer);
+    private void evaluateAndLog(boolean listXsltWarnings) {
+        runDeferredChecks();
+
+        // failing fast, the output is not logged at all once an assertion failed
+        if (!(failFast && !errors.isEmpty()) && outputLogPolicy.logs(!errors.isEmpty())) {
+            if (outputConsumer == null) {
+                logBack.accept(System.lineSeparator() + "OUTPUT:");
+            }
+
+            final Consumer<String> outConsumer = outputConsumer == null ? logBack : outputConsumer;
+            final int indent = outputConsumer == null ? 2 : 0;
+            final PhaseTimer timer = PhaseTimer.start(Phase.LOGGING, stylesheet, null);
+            try {
+                outputLogPolicy.log(transformationOutput, indent, outConsumer);
+            } finally {
+                timer.stop();
+            }
+        }
 
         logBack.accept(String.format("===================================================%s", System.lineSeparator()));
 
+        if (xpathEvaluator.isStreaming() && !xpathEvaluator.getEvaluationPaths().isEmpty()) {
+            logBack.accept("XPATH EVALUATION:");
+            for (Map.Entry<String, String> evaluationPath : xpathEvaluator.getEvaluationPaths().entrySet()) {
+                LogUtil.indent(String.format("%s: %s", evaluationPath.getValue(), evaluationPath.getKey()), 2, logBack);
+            }
+            logBack.accept(String.format("===================================================%s", System.lineSeparator()));
+        }
+
         if (listXsltWarnings && !errorsAndWarnings.isEmpty()) {
             logBack.accept("XSLT WARNINGS:");
             for (TransformerException ex : errorsAndWarnings) {
@@ -350,7 +611,19 @@ public class TransformAssertWithTransformResult implements TransformResults {
     }
 
 
-    private void initialize(TransformAssertWithTransformer transformAssertWithTransformer) {
+    List<String> getFailedRules() {
+        runDeferredChecks();
+        final List<String> failedRules = new ArrayList<>();
+        for (AssertionError error : errors) {
+            final String rule = String.valueOf(error.getMessage()).split("\\r\\n|\\n|\\r", 2)[0];
+            if (!failedRules.contains(rule)) {
+                failedRules.add(rule);
+            }
+        }
+        return failedRules;
+    }
+
+    private void initialize(TransformAssertWithTransformer transformAssertWithTransformer, String source) {
 
         logBack.accept("DESCRIBE:");
         LogUtil.indent(transformAssertWithTransformer.getXsltPath() != null
@@ -358,11 +631,60 @@ public class TransformAssertWithTransformResult implements TransformResults {
                 : transformAssertWithTransformer.getXsltString(), 2, logBack);
 
         logBack.accept(System.lineSeparator() + "WHEN TRANSFORMING:");
-        LogUtil.indent(transformAssertWithTransformer.getSourceXmlPath() != null
-                ? transformAssertWithTransformer.getSourceXmlPath()
-                : transformAssertWithTransformer.getSourceXmlString(), 2, logBack);
+        LogUtil.indent(source, 2, logBack);
 
         logBack.accept(System.lineSeparator() + "IT SHOULD:");
     }
 
+    @FunctionalInterface
+    private interface Check<E extends Exception> {
+        Outcome run() throws E;
+    }
+
+    private static class Outcome {
+        private static final Outcome OK = new Outcome(null, true);
+        private static final Outcome SKIPPED = new Outcome(null, true);
+
+        private final AssertionError error;
+        private final boolean logged;
+
+        private Outcome(AssertionError error, boolean logged) {
+            this.error = error;
+            this.logged = logged;
+        }
+
+        private static Outcome failed(AssertionError error) {
+            return new Outcome(error, true);
+        }
+
+        private static Outcome unlogged(AssertionError error) {
+            return new Outcome(error, false);
+        }
+    }
+
+    private static class DeferredCheck {
+        private final String report;
+        private final String xPath;
+        private final Map<String, String> namespaces;
+        private final Check<?> check;
+
+        private DeferredCheck(String report, String xPath, Map<String, String> namespaces, Check<?> check) {
+            this.report = report;
+            this.xPath = xPath;
+            this.namespaces = namespaces;
+            this.check = check;
+        }
+
+        /**
+         * Runs the check, turning an exception (f.i. an invalid xpath) into a failure of this assertion
+         */
+        private Outcome run() {
+            try {
+                return check.run();
+            } catch (Exception e) {
+                return Outcome.failed(new AssertionError(report + System.lineSeparator() + "  " + e.getMessage()
+                        + System.lineSeparator()));
+            }
+        }
+    }
 }
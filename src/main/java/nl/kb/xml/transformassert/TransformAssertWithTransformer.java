@@ -1,24 +1,52 @@
 package nl.kb.xml.transformassert;
 
+import net.sf.saxon.jaxp.TransformerImpl;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.SAXDestination;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.TeeDestination;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltTransformer;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
 import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 /**
@@ -29,6 +57,9 @@ import java.util.function.Consumer;
  * <ul>
  *     <li>{@link #whenTransforming(File, String...)}</li>
  *     <li>{@link #whenTransforming(String, String...)}</li>
+ *     <li>{@link #whenTransforming(ParsedSource, String...)}</li>
+ *     <li>{@link #whenTransformingAll(Path, String, AssertionPlan, String...)}</li>
+ *     <li>{@link #whenTransformingMatrix(File, ParameterMatrix, AssertionPlan)}</li>
  * </ul>
  *
  * </li>
@@ -39,27 +70,184 @@ import java.util.function.Consumer;
  * </ul>
  * </li>
  * </ul>
- *
+ * <p>The compiled stylesheet and the declared options are only read by the transformations; everything about one
+ * transformation (the source, its xslt warnings, its output) belongs to the result it returns. So once its options
+ * are declared, one instance can be shared by all threads of a parallel test run. The exception are
+ * {@link #writingOutputTo(Path)} and {@link #writingOutputTo(OutputStream)}, which direct every transformation
+ * to the same destination.</p>
  */
 public class TransformAssertWithTransformer {
-    private final List<TransformerException> errorsAndWarnings = new ArrayList<>();
+    private static volatile boolean failingFastByDefault = false;
+
     private final Consumer<String> logBack;
     private final Consumer<String> transformationOutput;
-    private String sourceXmlPath;
-    private String sourceXmlString;
+    private final SaxonEngine engine;
+    private final List<StreamingValidation> streamingValidations = new ArrayList<>();
+    private boolean resultTree = false;
+    private boolean deferringAssertions = false;
+    private boolean streamingXpath = false;
+    private Boolean failingFast;
+    private int warmUpIterations = 0;
+    private OutputLogPolicy outputLogPolicy = OutputLogPolicy.always();
+    private long spillThreshold = Long.MAX_VALUE;
+    private Path outputPath;
+    private OutputStream outputStream;
 
     private String xsltPath;
     private String xsltString;
-    private StreamSource xsltSource;
     private Templates templates;
 
-    TransformAssertWithTransformer(Consumer<String> logBack, Consumer<String> transformationOutput) {
+    TransformAssertWithTransformer(SaxonEngine engine, Consumer<String> logBack, Consumer<String> transformationOutput) {
+        this.engine = engine;
         this.logBack = logBack;
         this.transformationOutput = transformationOutput;
     }
 
     /**
-     * Declares the xml {@link File} to be transformed
+     * Declares that the transformation writes its output into an in-memory Saxon tree, in stead of serializing it<br>
+     * Xpath assertions are evaluated directly on that tree; the output is only serialized when a {@link String}
+     * assertion, xsd validation or the OUTPUT log needs it.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)} or {@link #whenComparingTo(File)}</p>
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer usingResultTree() {
+        this.resultTree = true;
+        return this;
+    }
+
+    /**
+     * Declares that assertions on the result are only recorded while chaining, and executed together by
+     * {@link TransformResults#evaluate()}<br>
+     * Identical xpaths are evaluated once, the output is only parsed when there are xpath assertions, and
+     * independent assertions run concurrently. Results are logged in the order of the chain; an assertion which
+     * cannot be evaluated (f.i. an invalid xpath) is reported as failed in stead of throwing.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)}</p>
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer deferringAssertions() {
+        this.deferringAssertions = true;
+        return this;
+    }
+
+    /**
+     * Declares that xpath assertions are evaluated while reading the serialized output, in stead of on a tree
+     * of the whole output, when the xpath is in the streamable subset: absolute paths of child and descendant
+     * steps, with <code>[@attr]</code>, <code>[@attr='value']</code> and <code>[n]</code> predicates, ending in
+     * an element, <code>text()</code> or <code>@attr</code>, optionally wrapped in <code>count(...)</code><br>
+     * Other xpaths are evaluated on the tree as usual. Combined with {@link #deferringAssertions()} all
+     * streamable xpaths are evaluated in one pass. evaluate reports which xpaths were streamed.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)}</p>
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer usingStreamingXpath() {
+        this.streamingXpath = true;
+        return this;
+    }
+
+    /**
+     * Declares whether to stop at the first failed assertion, overriding {@link TransformAssert#setFailFast(boolean)}<br>
+     * Failing fast, the assertions after the first failure are skipped (reported as SKIPPED), the output is not
+     * logged, and {@link #whenTransformingAll(Path, String, AssertionPlan, String...)} or
+     * {@link #whenTransformingMatrix(File, ParameterMatrix, AssertionPlan)} cancel their remaining and running
+     * transformations once one of them failed.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)} or {@link #whenComparingTo(File)}</p>
+     * @param failFast true to stop at the first failure
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer failingFast(boolean failFast) {
+        this.failingFast = failFast;
+        return this;
+    }
+
+    /**
+     * Declares that each transformation is preceded by a number of discarded runs on the same input and
+     * parameters, so {@link TransformAssertWithTransformResult#completesWithin(Duration, String...)} and
+     * {@link TransformAssertWithTransformResult#allocatesAtMost(long, String...)} measure a warmed-up JVM<br>
+     * Cannot be combined with an {@link InputStream} input or {@link #writingOutputTo(OutputStream)}.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)}</p>
+     * @param iterations the number of warm-up runs
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer warmingUp(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("iterations must not be negative");
+        }
+        this.warmUpIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Declares how much of the transformation output is logged by {@link TransformResults#evaluate()}
+     * @param policy the {@link OutputLogPolicy}, {@link OutputLogPolicy#always()} by default
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer loggingOutput(OutputLogPolicy policy) {
+        this.outputLogPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Declares that the serialized output is written to the given file, in stead of being collected in memory<br>
+     * Assertions which need the output read it back from the file through memory-mapped I/O.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)} or {@link #whenComparingTo(File)}</p>
+     * @param file the file to write the output to; it is overwritten when it exists
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer writingOutputTo(Path file) {
+        this.outputPath = file;
+        return this;
+    }
+
+    /**
+     * Declares that the serialized output is also written to the given {@link OutputStream}, which is flushed
+     * but not closed<br>
+     * Assertions use a copy which is kept in memory, or on disk when combined with
+     * {@link #spillingOutputToDiskAbove(long)}.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)} or {@link #whenComparingTo(File)}</p>
+     * @param out the {@link OutputStream} to write the output to
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer writingOutputTo(OutputStream out) {
+        this.outputStream = out;
+        return this;
+    }
+
+    /**
+     * Declares that outputs larger than the given number of bytes are moved from memory to a temporary file<br>
+     * Assertions which need the output read it back from that file through memory-mapped I/O.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)} or {@link #whenComparingTo(File)}</p>
+     * @param bytes the maximum number of bytes kept in memory
+     * @return this instance of {@link TransformAssertWithTransformer}
+     */
+    public TransformAssertWithTransformer spillingOutputToDiskAbove(long bytes) {
+        this.spillThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * Declares that the transformation output is validated against the given xsd {@link File} while it is being
+     * produced, in stead of afterwards<br>
+     * The result is reported with the other assertions, like
+     * {@link TransformAssertWithTransformResult#validatesAgainstXSD(File, String...)}.
+     * <p>Must be declared before {@link #whenTransforming(File, String...)} or {@link #whenComparingTo(File)}</p>
+     * @param xsd the xsd {@link File}
+     * @param rule name of the assertion
+     * @return this instance of {@link TransformAssertWithTransformer}
+     * @throws FileNotFoundException when the xsd file is not found
+     * @throws SAXException when the xsd file cannot be parsed
+     */
+    public TransformAssertWithTransformer whileValidatingAgainstXSD(File xsd, String... rule) throws FileNotFoundException, SAXException {
+        if (!xsd.isFile()) {
+            throw new FileNotFoundException(xsd.getAbsolutePath());
+        }
+        streamingValidations.add(new StreamingValidation(xsd, SchemaCache.getInstance().get(engine, xsd),
+                LogUtil.mkRule("VALIDATE AGAINST XSD: " + xsd.getAbsolutePath(), rule)));
+        return this;
+    }
+
+    /**
+     * Declares the xml {@link File} to be transformed<br>
+     * The file is read as bytes, so the parser uses the encoding of the xml declaration.
      * @param xmlFile the xml {@link File}
      * @param parameters tuples of XSLT {@link String}-parameters
      * @return instance of {@link TransformAssertWithTransformResult}
@@ -68,9 +256,64 @@ public class TransformAssertWithTransformer {
      * @throws TransformerException when the XML file cannot be parsed by Saxon
      */
     public TransformAssertWithTransformResult whenTransforming(File xmlFile, String... parameters) throws FileNotFoundException, UnsupportedEncodingException, TransformerException {
-        final Reader reader = new InputStreamReader(new FileInputStream(xmlFile), StandardCharsets.UTF_8.name());
-        this.sourceXmlPath = xmlFile.getAbsolutePath();
-        return transform(reader, parameters);
+        if (!xmlFile.isFile()) {
+            throw new FileNotFoundException(xmlFile.getAbsolutePath());
+        }
+        try {
+            return whenTransforming(xmlFile.toPath(), parameters);
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        }
+    }
+
+    /**
+     * Declares the xml file to be transformed<br>
+     * The file is read as bytes, so the parser uses the encoding of the xml declaration; files larger than 16 MB
+     * are memory-mapped in stead of copied through the heap.
+     * @param xmlFile the {@link Path} of the xml file
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return instance of {@link TransformAssertWithTransformResult}
+     * @throws IOException when the XML file cannot be read
+     * @throws TransformerException when the XML file cannot be parsed by Saxon
+     */
+    public TransformAssertWithTransformResult whenTransforming(Path xmlFile, String... parameters) throws IOException, TransformerException {
+        warmUp(() -> InputSources.of(xmlFile), parameters);
+        final StreamSource source = InputSources.of(xmlFile);
+        try {
+            return transform(source, xmlFile.toAbsolutePath().toString(), parameters);
+        } finally {
+            InputSources.close(source);
+        }
+    }
+
+    /**
+     * Declares the xml {@link InputStream} to be transformed<br>
+     * The stream is read as bytes, so the parser uses the encoding of the xml declaration. It is not closed.
+     * @param xml the xml {@link InputStream}
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return instance of {@link TransformAssertWithTransformResult}
+     * @throws TransformerException when the XML cannot be parsed by Saxon
+     */
+    public TransformAssertWithTransformResult whenTransforming(InputStream xml, String... parameters) throws TransformerException {
+        if (warmUpIterations > 0) {
+            throw new IllegalStateException("warmingUp needs an input which can be read more than once, not an InputStream");
+        }
+        return transform(new StreamSource(xml), "(input stream)", parameters);
+    }
+
+    /**
+     * Declares the xml {@link ByteBuffer} to be transformed<br>
+     * The remaining bytes are read without changing the position of the buffer; a {@link java.nio.MappedByteBuffer}
+     * is transformed without copying it to the heap.
+     * @param xml the xml {@link ByteBuffer}
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return instance of {@link TransformAssertWithTransformResult}
+     * @throws TransformerException when the XML cannot be parsed by Saxon
+     */
+    public TransformAssertWithTransformResult whenTransforming(ByteBuffer xml, String... parameters) throws TransformerException {
+        warmUp(() -> new StreamSource(new ByteBufferInputStream(xml)), parameters);
+        return transform(new StreamSource(new ByteBufferInputStream(xml)),
+                String.format("(byte buffer, %d bytes)", xml.remaining()), parameters);
     }
 
     /**
@@ -82,9 +325,158 @@ public class TransformAssertWithTransformer {
      * @throws TransformerException when the XML file cannot be parsed by Saxon
      */
     public TransformAssertWithTransformResult whenTransforming(String xml, String... parameters) throws UnsupportedEncodingException, TransformerException {
-        final Reader reader = new InputStreamReader(new ByteArrayInputStream(xml.getBytes()), StandardCharsets.UTF_8.name());
-        this.sourceXmlString = xml;
-        return transform(reader, parameters);
+        // the warm-up reads the xml the same way as the measured transformation
+        warmUp(() -> stringSource(xml), parameters);
+        return transform(stringSource(xml), xml, parameters);
+    }
+
+    private static StreamSource stringSource(String xml) throws UnsupportedEncodingException {
+        return new StreamSource(new InputStreamReader(new ByteArrayInputStream(xml.getBytes()), StandardCharsets.UTF_8.name()));
+    }
+
+    /**
+     * Declares the pre-parsed xml to be transformed, without parsing it again<br>
+     * The same {@link ParsedSource} can be passed to any number of stylesheets, parameter sets and threads.
+     * @param source the {@link ParsedSource} from {@link TransformAssert#source(File)}
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return instance of {@link TransformAssertWithTransformResult}
+     * @throws TransformerException when the stylesheet fails
+     */
+    public TransformAssertWithTransformResult whenTransforming(ParsedSource source, String... parameters) throws TransformerException {
+        final XdmNode tree = source.getTree(engine);
+        warmUp(tree::asSource, parameters);
+        return transform(tree.asSource(), source.getDescription(), parameters);
+    }
+
+    /**
+     * Declares the xml {@link File} to be transformed on an {@link Executor}, so many transformations can be in
+     * flight at once<br>
+     * The log lines of the result are collected and passed on to the log back in one block when it is evaluated
+     * (see {@link TransformResults#evaluateAsync(Executor)}). Assertions declared on the result run on the calling
+     * thread, unless {@link #deferringAssertions()} is declared.
+     * @param xmlFile the xml {@link File}
+     * @param executor the {@link Executor} to read and transform the xml on
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return a {@link CompletableFuture} of the {@link TransformAssertWithTransformResult}, completed exceptionally
+     * with a {@link FileNotFoundException}, {@link IOException} or {@link TransformerException} when the xml cannot
+     * be read or transformed
+     */
+    public CompletableFuture<TransformAssertWithTransformResult> whenTransformingAsync(File xmlFile, Executor executor, String... parameters) {
+        final String sourceXml = xmlFile.getAbsolutePath();
+        return Futures.supplyAsync(() -> {
+            if (!xmlFile.isFile()) {
+                throw new FileNotFoundException(sourceXml);
+            }
+            warmUp(() -> InputSources.of(xmlFile.toPath()), parameters);
+            final StreamSource source = InputSources.of(xmlFile.toPath());
+            try {
+                return transformAsync(source, sourceXml, parameters);
+            } finally {
+                InputSources.close(source);
+            }
+        }, executor);
+    }
+
+    /**
+     * Declares the pre-parsed xml to be transformed on an {@link Executor}
+     * (see {@link #whenTransformingAsync(File, Executor, String...)})
+     * @param source the {@link ParsedSource} from {@link TransformAssert#source(File)}
+     * @param executor the {@link Executor} to transform the xml on
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return a {@link CompletableFuture} of the {@link TransformAssertWithTransformResult}, completed exceptionally
+     * with a {@link TransformerException} when the stylesheet fails
+     */
+    public CompletableFuture<TransformAssertWithTransformResult> whenTransformingAsync(ParsedSource source, Executor executor, String... parameters) {
+        final XdmNode tree = source.getTree(engine);
+        return Futures.supplyAsync(() -> {
+            warmUp(tree::asSource, parameters);
+            return transformAsync(tree.asSource(), source.getDescription(), parameters);
+        }, executor);
+    }
+
+    /**
+     * Transforms every file in a directory matching a glob pattern, and applies the same {@link AssertionPlan}
+     * to each output<br>
+     * The files are processed in parallel on a shared work-stealing pool, using the stylesheet compiled once.
+     * Individual results are not logged; {@link TransformCorpusResults#evaluate()} logs an aggregated report.
+     * Cannot be combined with {@link #writingOutputTo(Path)} or {@link #writingOutputTo(OutputStream)}.
+     * @param dir the directory to search (recursively)
+     * @param glob the glob pattern, matched against the path relative to dir (f.i.: <code>**&#47;*.xml</code>); a
+     *             leading <code>**&#47;</code> also matches the files directly in dir
+     * @param plan the {@link AssertionPlan} to apply to each output
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return instance of {@link TransformCorpusResults}
+     * @throws IOException when the directory cannot be read
+     */
+    public TransformCorpusResults whenTransformingAll(Path dir, String glob, AssertionPlan plan, String... parameters) throws IOException {
+        if (outputPath != null || outputStream != null) {
+            throw new IllegalStateException("writingOutputTo cannot be combined with whenTransformingAll");
+        }
+        final PathMatcher matcher = globMatcher(dir, glob);
+        final List<BatchRunner.Job> jobs;
+        try (Stream<Path> files = Files.walk(dir)) {
+            jobs = files
+                    .filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(dir.relativize(file)))
+                    .sorted()
+                    .map(file -> new BatchRunner.Job(file.toString(), cancelled -> {
+                        final StreamSource source = InputSources.of(file);
+                        try {
+                            return getTransformResult(source, cancelled, parameters);
+                        } finally {
+                            InputSources.close(source);
+                        }
+                    }))
+                    .collect(Collectors.toList());
+        }
+
+        return new TransformCorpusResults(this, dir.resolve(glob).toString(), runInParallel(plan, jobs));
+    }
+
+    /**
+     * Transforms the xml {@link File} with every combination of the parameter values in a {@link ParameterMatrix},
+     * and applies the same {@link AssertionPlan} to each output<br>
+     * The xml is parsed once and the combinations are processed in parallel on a shared work-stealing pool, using
+     * the stylesheet compiled once. Individual results are not logged; {@link TransformMatrixResults#evaluate()} logs
+     * a table with the status of each combination.
+     * Cannot be combined with {@link #writingOutputTo(Path)} or {@link #writingOutputTo(OutputStream)}.
+     * @param xmlFile the xml {@link File}
+     * @param matrix the {@link ParameterMatrix}
+     * @param plan the {@link AssertionPlan} to apply to each output
+     * @return instance of {@link TransformMatrixResults}
+     * @throws IOException when the XML file cannot be read
+     * @throws TransformerException when the XML file cannot be parsed by Saxon
+     */
+    public TransformMatrixResults whenTransformingMatrix(File xmlFile, ParameterMatrix matrix, AssertionPlan plan) throws IOException, TransformerException {
+        return whenTransformingMatrix(TransformAssert.source(xmlFile.toPath(), engine), matrix, plan);
+    }
+
+    /**
+     * Transforms the pre-parsed xml with every combination of the parameter values in a {@link ParameterMatrix},
+     * and applies the same {@link AssertionPlan} to each output
+     * (see {@link #whenTransformingMatrix(File, ParameterMatrix, AssertionPlan)})
+     * @param source the {@link ParsedSource} from {@link TransformAssert#source(File)}
+     * @param matrix the {@link ParameterMatrix}
+     * @param plan the {@link AssertionPlan} to apply to each output
+     * @return instance of {@link TransformMatrixResults}
+     */
+    public TransformMatrixResults whenTransformingMatrix(ParsedSource source, ParameterMatrix matrix, AssertionPlan plan) {
+        if (outputPath != null || outputStream != null) {
+            throw new IllegalStateException("writingOutputTo cannot be combined with whenTransformingMatrix");
+        }
+        final XdmNode tree = source.getTree(engine);
+        final List<String[]> combinations = matrix.getCombinations();
+        final List<BatchRunner.Job> jobs = new ArrayList<>();
+        for (String[] parameters : combinations) {
+            final StringBuilder label = new StringBuilder();
+            for (int i = 0; i + 1 < parameters.length; i += 2) {
+                label.append(label.length() > 0 ? ", " : "").append(parameters[i]).append('=').append(parameters[i + 1]);
+            }
+            jobs.add(new BatchRunner.Job(label.toString(),
+                    cancelled -> getTransformResult(tree.asSource(), cancelled, parameters)));
+        }
+        return new TransformMatrixResults(this, source.getDescription(), matrix, combinations,
+                runInParallel(plan, jobs));
     }
 
     /**
@@ -97,11 +489,10 @@ public class TransformAssertWithTransformer {
      */
     public TransformCompareWithTransformers whenComparingTo(File xsltFile) throws FileNotFoundException, UnsupportedEncodingException, TransformerConfigurationException {
         final TransformAssertWithTransformer transformAssertWithTransformer =
-                new TransformAssertWithTransformer(logBack, transformationOutput);
-        final Reader reader = new InputStreamReader(new FileInputStream(xsltFile), StandardCharsets.UTF_8.name());
+                new TransformAssertWithTransformer(engine, logBack, transformationOutput);
 
-        transformAssertWithTransformer.setXsltSource(new StreamSource(reader));
-        transformAssertWithTransformer.setXsltPath(xsltFile.getAbsolutePath());
+        transformAssertWithTransformer.setXsltFile(xsltFile);
+        copyOptionsTo(transformAssertWithTransformer);
         return new TransformCompareWithTransformers(this, transformAssertWithTransformer);
     }
 
@@ -115,21 +506,28 @@ public class TransformAssertWithTransformer {
     public TransformCompareWithTransformers whenComparingTo(String xslt) throws UnsupportedEncodingException, TransformerConfigurationException {
 
         final TransformAssertWithTransformer transformAssertWithTransformer =
-                new TransformAssertWithTransformer(logBack, transformationOutput);
-        final Reader reader = new InputStreamReader(new ByteArrayInputStream(xslt.getBytes()), StandardCharsets.UTF_8.name());
+                new TransformAssertWithTransformer(engine, logBack, transformationOutput);
 
-        transformAssertWithTransformer.setXsltSource(new StreamSource(reader));
         transformAssertWithTransformer.setXsltString(xslt);
+        copyOptionsTo(transformAssertWithTransformer);
 
         return new TransformCompareWithTransformers(this, transformAssertWithTransformer);
     }
 
-    byte[] getTransformResult(Reader reader, String... parameters) throws TransformerException {
+    TransformOutput getTransformResult(Source sourceXml, String... parameters) throws TransformerException {
+        return getTransformResult(sourceXml, null, parameters);
+    }
+
+    /**
+     * Transforms, aborting at the next output element once cancelled (when not null) returns true
+     */
+    TransformOutput getTransformResult(Source sourceXml, BooleanSupplier cancelled, String... parameters) throws TransformerException {
         assert parameters.length % 2 == 0;
 
-        final StreamSource sourceXml = new StreamSource(reader);
+        final Measurement.Start measurement = Measurement.start();
+
+        final List<TransformerException> warnings = Collections.synchronizedList(new ArrayList<>());
         final Transformer transformer = templates.newTransformer();
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         for (int i = 0; i < parameters.length; i += 2) {
             transformer.setParameter(parameters[i], parameters[i + 1]);
@@ -138,12 +536,12 @@ public class TransformAssertWithTransformer {
         transformer.setErrorListener(new ErrorListener() {
             @Override
             public void warning(TransformerException exception) {
-                errorsAndWarnings.add(exception);
+                warnings.add(exception);
             }
 
             @Override
             public void error(TransformerException exception) {
-                errorsAndWarnings.add(exception);
+                warnings.add(exception);
             }
 
             @Override
@@ -151,38 +549,176 @@ public class TransformAssertWithTransformer {
                 throw exception;
             }
         });
-        transformer.transform(sourceXml, new StreamResult(out));
-        return out.toByteArray();
+
+        final List<StreamingValidation.Run> validations = new ArrayList<>();
+        try {
+            for (StreamingValidation streamingValidation : streamingValidations) {
+                validations.add(streamingValidation.start());
+            }
+        } catch (SAXException e) {
+            throw new TransformerException(e);
+        }
+
+        final OutputStream out = openOutputStream();
+        final XdmDestination tree = resultTree ? new XdmDestination() : null;
+        Destination destination = resultTree ? tree : newSerializer(out);
+        if (resultTree && (outputPath != null || outputStream != null)) {
+            destination = new TeeDestination(destination, newSerializer(out));
+        }
+        for (StreamingValidation.Run validation : validations) {
+            destination = new TeeDestination(destination, new SAXDestination(validation.getValidatorHandler()));
+        }
+        if (cancelled != null) {
+            destination = new TeeDestination(destination, new SAXDestination(new CancellingHandler(cancelled)));
+        }
+
+        final XsltTransformer xsltTransformer = ((TransformerImpl) transformer).getUnderlyingXsltTransformer();
+        boolean transformed = false;
+        final PhaseTimer timer = PhaseTimer.start(Phase.TRANSFORMATION, getStylesheet(), null);
+        try {
+            xsltTransformer.setSource(sourceXml);
+            xsltTransformer.setDestination(destination);
+            xsltTransformer.transform();
+            transformed = true;
+        } catch (SaxonApiException e) {
+            throw e.getCause() instanceof TransformerException
+                    ? (TransformerException) e.getCause()
+                    : new TransformerException(e);
+        } finally {
+            timer.stop();
+            if (!transformed && out instanceof SpillBuffer) {
+                ((SpillBuffer) out).discard();
+            } else if (out != null) {
+                closeOutput(out, transformed);
+            }
+        }
+
+        final TransformOutput output;
+        if (resultTree) {
+            output = TransformOutput.of(tree.getXdmNode(), engine.getProcessor(), templates.getOutputProperties());
+        } else if (outputPath != null) {
+            output = TransformOutput.of(outputPath);
+        } else {
+            output = ((SpillBuffer) out).toOutput();
+        }
+        return output.withValidations(validations).withWarnings(warnings).withMeasurement(measurement.stop());
+    }
+
+    /**
+     * @return the stream receiving the serialized output, or null when only the result tree is kept
+     */
+    private OutputStream openOutputStream() throws TransformerException {
+        if (outputPath != null) {
+            try {
+                return new BufferedOutputStream(Files.newOutputStream(outputPath));
+            } catch (IOException e) {
+                throw new TransformerException(e);
+            }
+        }
+        if (resultTree) {
+            // the result tree is the output, so a copy on the heap would never be read
+            return outputStream == null ? null : new KeptOpenOutputStream(outputStream);
+        }
+        return new SpillBuffer(spillThreshold, outputStream);
     }
 
-    private TransformAssertWithTransformResult transform(Reader reader, String... parameters) throws TransformerException {
-        return new TransformAssertWithTransformResult(this,
-                getTransformResult(reader, parameters));
+    /**
+     * Closes the output; when the transformation succeeded, failing to write the rest of the output fails it too
+     */
+    private static void closeOutput(OutputStream out, boolean transformed) throws TransformerException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (transformed) {
+                throw new TransformerException("Failed to write transformation output", e);
+            }
+        }
     }
 
-    private void getTemplates() throws TransformerConfigurationException {
-        final TransformerFactory factory = new net.sf.saxon.TransformerFactoryImpl();
-        templates = factory.newTemplates(xsltSource);
+    private List<BatchRunner.Outcome> runInParallel(AssertionPlan plan, List<BatchRunner.Job> jobs) {
+        return new BatchRunner(this, plan).run(jobs, BatchPool.EXECUTOR);
     }
 
+    /**
+     * Matches paths relative to dir; unlike a plain glob, <code>**&#47;*.xml</code> also matches <code>a.xml</code>
+     */
+    private static PathMatcher globMatcher(Path dir, String glob) {
+        final PathMatcher matcher = dir.getFileSystem().getPathMatcher("glob:" + glob);
+        if (!glob.startsWith("**/")) {
+            return matcher;
+        }
+        final PathMatcher topLevel = dir.getFileSystem().getPathMatcher("glob:" + glob.substring(3));
+        return path -> matcher.matches(path) || topLevel.matches(path);
+    }
 
-    void setXsltPath(String xsltPath) throws TransformerConfigurationException {
+    private Serializer newSerializer(OutputStream out) {
+        final Serializer serializer = engine.getProcessor().newSerializer(out);
+        serializer.setDefaultOutputProperties(templates.getOutputProperties());
+        return serializer;
+    }
 
-        this.xsltPath = xsltPath;
-        getTemplates();
+    private void copyOptionsTo(TransformAssertWithTransformer baseline) {
+        // streaming validations and output destinations only apply to the stylesheet under test
+        baseline.resultTree = resultTree;
+        baseline.spillThreshold = spillThreshold;
     }
 
-    void setXsltString(String xsltString) throws TransformerConfigurationException {
-        this.xsltString = xsltString;
-        getTemplates();
+    private void warmUp(SourceOpener opener, String... parameters) throws TransformerException {
+        if (warmUpIterations > 0 && isWritingOutputToStream()) {
+            throw new IllegalStateException("warmingUp cannot be combined with writingOutputTo(OutputStream)");
+        }
+        for (int i = 0; i < warmUpIterations; i++) {
+            final Source source;
+            try {
+                source = opener.open();
+            } catch (IOException e) {
+                throw new TransformerException(e);
+            }
+            try {
+                getTransformResult(source, parameters).release();
+            } finally {
+                if (source instanceof StreamSource && ((StreamSource) source).getInputStream() != null) {
+                    InputSources.close((StreamSource) source);
+                }
+            }
+        }
     }
 
-    String getSourceXmlPath() {
-        return sourceXmlPath;
+    private TransformAssertWithTransformResult transform(Source source, String sourceXml, String... parameters) throws TransformerException {
+        return new TransformAssertWithTransformResult(this, getTransformResult(source, parameters), sourceXml, logBack);
     }
 
-    String getSourceXmlString() {
-        return sourceXmlString;
+    private TransformAssertWithTransformResult transformAsync(Source source, String sourceXml, String... parameters) throws TransformerException {
+        return new TransformAssertWithTransformResult(this, getTransformResult(source, parameters), sourceXml,
+                new BufferedLogBack(logBack));
+    }
+
+    void setXsltFile(File xsltFile) throws TransformerConfigurationException {
+        this.xsltPath = xsltFile.getAbsolutePath();
+        this.templates = TemplatesCache.getInstance().get(engine, xsltFile, () -> {
+            final PhaseTimer timer = PhaseTimer.start(Phase.COMPILATION, getStylesheet(), null);
+            try {
+                return engine.newTemplates(new StreamSource(xsltFile));
+            } finally {
+                timer.stop();
+            }
+        });
+    }
+
+    void setXsltString(String xsltString) throws TransformerConfigurationException {
+        this.xsltString = xsltString;
+        this.templates = TemplatesCache.getInstance().get(engine, xsltString, () -> {
+            final PhaseTimer timer = PhaseTimer.start(Phase.COMPILATION, getStylesheet(), null);
+            try {
+                final Reader reader = new InputStreamReader(
+                        new ByteArrayInputStream(xsltString.getBytes()), StandardCharsets.UTF_8.name());
+                return engine.newTemplates(new StreamSource(reader));
+            } catch (UnsupportedEncodingException e) {
+                throw new TransformerConfigurationException(e);
+            } finally {
+                timer.stop();
+            }
+        });
     }
 
     String getXsltPath() {
@@ -193,8 +729,45 @@ public class TransformAssertWithTransformer {
         return xsltString;
     }
 
-    void setXsltSource(StreamSource xsltSource) {
-        this.xsltSource = xsltSource;
+    boolean isWritingOutputToStream() {
+        return outputStream != null;
+    }
+
+    boolean isFailingFast() {
+        return failingFast != null ? failingFast : failingFastByDefault;
+    }
+
+    static boolean isFailingFastByDefault() {
+        return failingFastByDefault;
+    }
+
+    static void setFailingFastByDefault(boolean failFast) {
+        failingFastByDefault = failFast;
+    }
+
+    boolean isStreamingXpath() {
+        return streamingXpath;
+    }
+
+    boolean isDeferringAssertions() {
+        return deferringAssertions;
+    }
+
+    OutputLogPolicy getOutputLogPolicy() {
+        return outputLogPolicy;
+    }
+
+    /**
+     * @return the path of the stylesheet, or a short label when it was declared as {@link String}
+     */
+    String getStylesheet() {
+        return xsltPath != null
+                ? xsltPath
+                : String.format("xslt string #%08x", xsltString == null ? 0 : xsltString.hashCode());
+    }
+
+    SaxonEngine getEngine() {
+        return engine;
     }
 
     Consumer<String> getLogBack() {
@@ -205,7 +778,50 @@ public class TransformAssertWithTransformer {
         return transformationOutput;
     }
 
-    List<TransformerException> getErrorsAndWarnings() {
-        return errorsAndWarnings;
+    @FunctionalInterface
+    private interface SourceOpener {
+        Source open() throws IOException;
+    }
+
+    /**
+     * The pool of the batch runs, created on first use and shared by all of them; its threads are daemons
+     */
+    private static class BatchPool {
+        private static final ExecutorService EXECUTOR = Executors.newWorkStealingPool();
+    }
+
+    /**
+     * Writes through to the {@link #writingOutputTo(OutputStream)} stream, which belongs to the caller and is only
+     * flushed when the transformation is done
+     */
+    private static class KeptOpenOutputStream extends FilterOutputStream {
+        private KeptOpenOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static class CancellingHandler extends DefaultHandler {
+        private final BooleanSupplier cancelled;
+
+        private CancellingHandler(BooleanSupplier cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if (cancelled.getAsBoolean()) {
+                throw new SAXException("Transformation cancelled");
+            }
+        }
     }
 }
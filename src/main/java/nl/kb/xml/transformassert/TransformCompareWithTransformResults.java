@@ -1,59 +1,103 @@
 package nl.kb.xml.transformassert;
 
-import org.xml.sax.SAXException;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
 import org.xmlunit.builder.DiffBuilder;
 import org.xmlunit.diff.DefaultNodeMatcher;
 import org.xmlunit.diff.Diff;
 import org.xmlunit.diff.Difference;
 import org.xmlunit.diff.ElementSelectors;
 
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 import static nl.kb.xml.transformassert.LogUtil.indent;
 import static nl.kb.xml.transformassert.LogUtil.mkRule;
 import static nl.kb.xml.transformassert.ResultStatus.FAILED;
 import static nl.kb.xml.transformassert.ResultStatus.OK;
+import static nl.kb.xml.transformassert.ResultStatus.SKIPPED;
 
 /**
  * An instance of this class is returned by {@link TransformCompareWithTransformers#whenTransforming(File, String...)}
  * <p>It exposes assertion methods to do comparisons between the XML outputted by both stylesheets</p>
  */
 public class TransformCompareWithTransformResults implements TransformResults {
-    private final byte[] resultFromBaseline;
-    private final byte[] resultUnderTest;
+    private static final int DEFAULT_WARM_UPS = 5;
+    private static final int DEFAULT_ITERATIONS = 30;
+    private static final double SIGNIFICANCE = 0.05;
+    private static final int MAX_REPORTED_VALUES = 20;
+    private static final int EXCERPT_BYTES = 1024;
+    /**
+     * Stricter than both diff engines: comments and sibling order are kept
+     */
+    private static final Canonicalization SEMANTIC_FAST_PATH =
+            Canonicalization.xml().ignoringWhitespace().ignoringAttributeOrder();
+
+    private final TransformOutput resultFromBaseline;
+    private final TransformOutput resultUnderTest;
+    private final TransformAssertWithTransformer underTest;
+    private final TransformAssertWithTransformer baseline;
+    private final TransformCompareWithTransformers.SourceParser sourceParser;
+    private final String[] parameters;
     private final Consumer<String> logBack;
     private final Consumer<String> outputConsumer;
+    private final OutputLogPolicy outputLogPolicy;
     private final List<TransformerException> errorsAndWarnings;
+    private final Executor executor;
+    private final String stylesheet;
+    private final boolean failFast;
     private XpathEvaluator baselineEvaluator;
     private XpathEvaluator resultEvaluator;
     private List<AssertionError> errors = new ArrayList<>();
 
 
     TransformCompareWithTransformResults(TransformCompareWithTransformers transformCompareWithTransformers,
-                                         byte[] resultFromBaseline, byte[] resultUnderTest) {
+                                         TransformOutput resultFromBaseline, TransformOutput resultUnderTest,
+                                         String source, TransformCompareWithTransformers.SourceParser sourceParser,
+                                         String[] parameters, Consumer<String> logBack) {
 
         this.resultFromBaseline = resultFromBaseline;
         this.resultUnderTest = resultUnderTest;
+        this.underTest = transformCompareWithTransformers.getUnderTest();
+        this.baseline = transformCompareWithTransformers.getBaseline();
+        this.sourceParser = sourceParser;
+        this.parameters = parameters;
 
-        this.logBack = transformCompareWithTransformers.getLogBack();
+        this.logBack = logBack;
         this.outputConsumer = transformCompareWithTransformers.getTransformationOutput();
-        this.errorsAndWarnings = transformCompareWithTransformers.getErrorsAndWarnings();
-        baselineEvaluator = new XpathEvaluator(resultFromBaseline);
-        resultEvaluator = new XpathEvaluator(resultUnderTest);
-        initialize(transformCompareWithTransformers);
+        this.outputLogPolicy = transformCompareWithTransformers.getUnderTest().getOutputLogPolicy();
+        this.errorsAndWarnings = resultUnderTest.getWarnings();
+        this.executor = transformCompareWithTransformers.getExecutor();
+        final SaxonEngine engine = transformCompareWithTransformers.getUnderTest().getEngine();
+        this.stylesheet = transformCompareWithTransformers.getUnderTest().getStylesheet();
+        this.failFast = transformCompareWithTransformers.getUnderTest().isFailingFast();
+        baselineEvaluator = new XpathEvaluator(resultFromBaseline, engine,
+                transformCompareWithTransformers.getBaseline().getStylesheet());
+        resultEvaluator = new XpathEvaluator(resultUnderTest, engine, stylesheet);
+        initialize(transformCompareWithTransformers, source);
+        for (StreamingValidation.Run validation : resultUnderTest.getValidations()) {
+            reportValidation(validation);
+        }
 
     }
 
-    private void initialize(TransformCompareWithTransformers transformCompareWithTransformers) {
+    private void initialize(TransformCompareWithTransformers transformCompareWithTransformers, String source) {
         logBack.accept("DESCRIBE:");
         indent(transformCompareWithTransformers.getUnderTest().getXsltPath() != null
                 ? transformCompareWithTransformers.getUnderTest().getXsltPath()
@@ -65,13 +109,26 @@ public class TransformCompareWithTransformResults implements TransformResults {
                 : transformCompareWithTransformers.getBaseline().getXsltString(), 2, logBack);
 
         logBack.accept(System.lineSeparator() + "WHEN TRANSFORMING:");
-        indent(transformCompareWithTransformers.getSourceXmlPath() != null
-                ? transformCompareWithTransformers.getSourceXmlPath()
-                : transformCompareWithTransformers.getSourceXmlString(), 2, logBack);
+        indent(source, 2, logBack);
 
         logBack.accept(System.lineSeparator() + "IT SHOULD:");
     }
 
+    private void reportValidation(StreamingValidation.Run validation) {
+        if (validation.getError() == null) {
+            LogUtil.indent(String.format("%s (%s)", validation.getReport(), OK), 2, logBack);
+        } else {
+            errors.add(new AssertionError(String.format(
+                    validation.getReport() + System.lineSeparator() +
+                            "  Expected output to validate against XSD: %s" + System.lineSeparator() +
+                            "  But got: %s" + System.lineSeparator(),
+                    validation.getXsd().getAbsolutePath(),
+                    validation.getError().getMessage()
+            )));
+            LogUtil.indent(String.format("%s (%s)", validation.getReport(), FAILED), 2, logBack);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -101,13 +158,30 @@ public class TransformCompareWithTransformResults implements TransformResults {
      */
     @Override
     public void evaluate(boolean listXsltWarnings, Consumer<String> failureConsumer) throws UnsupportedEncodingException {
-        if (outputConsumer == null) {
-            logBack.accept(System.lineSeparator() + "OUTPUT:");
+        try {
+            evaluateAndLog(listXsltWarnings, failureConsumer);
+        } finally {
+            resultFromBaseline.release();
+            resultUnderTest.release();
+            BufferedLogBack.flush(logBack);
         }
+    }
 
-        final Consumer<String> outConsumer = outputConsumer == null ? logBack : outputConsumer;
-        final int indent = outputConsumer == null ? 2 : 0;
-        LogUtil.indent(new String(resultUnderTest, StandardCharsets.UTF_8.name()), indent, outConsumer);
+    private void evaluateAndLog(boolean listXsltWarnings, Consumer<String> failureConsumer) {
+        if (!(failFast && !errors.isEmpty()) && outputLogPolicy.logs(!errors.isEmpty())) {
+            if (outputConsumer == null) {
+                logBack.accept(System.lineSeparator() + "OUTPUT:");
+            }
+
+            final Consumer<String> outConsumer = outputConsumer == null ? logBack : outputConsumer;
+            final int indent = outputConsumer == null ? 2 : 0;
+            final PhaseTimer timer = PhaseTimer.start(Phase.LOGGING, stylesheet, null);
+            try {
+                outputLogPolicy.log(resultUnderTest, indent, outConsumer);
+            } finally {
+                timer.stop();
+            }
+        }
 
         logBack.accept(String.format("===================================================%s", System.lineSeparator()));
 
@@ -138,24 +212,74 @@ public class TransformCompareWithTransformResults implements TransformResults {
     }
 
     /**
-     * Asserts that the output of both stylesheets is exactly the same {@link String#equals}
+     * Asserts that the output of both stylesheets is exactly the same {@link String#equals}<br>
+     * Both outputs are compared as streams; only when they differ, an excerpt of each around the first difference is
+     * decoded for the failure message. The default name of the assertion shows (the start of) the baseline output.
      * @param rule name of the assertion
      * @return instance of self exposing assertion methods and {@link #evaluate()}
      * @throws UnsupportedEncodingException when UTF-8 is not supported
      */
     public TransformCompareWithTransformResults hasEqualOutputs(String... rule) throws UnsupportedEncodingException {
-        final String expected = new String(resultFromBaseline, StandardCharsets.UTF_8.name());
-        final String stringResult = new String(resultUnderTest, StandardCharsets.UTF_8.name());
+        final String report;
+        try {
+            report = rule.length > 0 ? rule[0] : "EQUAL: " + resultFromBaseline.excerpt(0, EXCERPT_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (skipping(report)) {
+            return this;
+        }
+        final long mismatch;
+        final PhaseTimer timer = PhaseTimer.start(Phase.DIFF, stylesheet, report);
+        try {
+            mismatch = resultFromBaseline.mismatch(resultUnderTest);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            timer.stop();
+        }
 
-        final String report = mkRule("EQUAL: " + expected, rule);
+        if (mismatch >= 0) {
+            errors.add(new AssertionError(report + System.lineSeparator() +
+                    describeMismatch("Expected output to equal", mismatch)));
+            LogUtil.indent(String.format("%s (%s)", report, FAILED), 2, logBack);
+        } else {
+            LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
+        }
 
-        if (!stringResult.equals(expected)) {
-            errors.add(new AssertionError(String.format(
-                    report + System.lineSeparator() +
-                            "  Expected output to equal: '%s'" + System.lineSeparator() +
-                            "  But got: '%s'" + System.lineSeparator()
-                    , expected, stringResult
-            )));
+        return this;
+    }
+
+    /**
+     * Asserts that the output of both stylesheets has the same canonical form, ignoring differences in serialization
+     * like the encoding, attribute quotes or namespace prefixes<br>
+     * Only the digests of both canonical forms are compared, streaming; only when they differ, an excerpt of each
+     * output is decoded for the failure message
+     * @param canonicalization determines which differences are insignificant
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     */
+    public TransformCompareWithTransformResults hasEqualOutputs(Canonicalization canonicalization, String... rule) {
+        final String report = mkRule("CANONICALLY EQUAL BASELINE OUTPUT", rule);
+        if (skipping(report)) {
+            return this;
+        }
+        String failure = null;
+        final PhaseTimer timer = PhaseTimer.start(Phase.DIFF, stylesheet, report);
+        try {
+            if (!canonicallyEqual(canonicalization)) {
+                failure = describeMismatch("Expected output to canonically equal", -1);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (XMLStreamException e) {
+            failure = "  Got unparsable XML output: " + e.getMessage() + System.lineSeparator();
+        } finally {
+            timer.stop();
+        }
+
+        if (failure != null) {
+            errors.add(new AssertionError(report + System.lineSeparator() + failure));
             LogUtil.indent(String.format("%s (%s)", report, FAILED), 2, logBack);
         } else {
             LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
@@ -164,6 +288,30 @@ public class TransformCompareWithTransformResults implements TransformResults {
         return this;
     }
 
+    /**
+     * Decodes at most {@link #EXCERPT_BYTES} of both outputs, starting a little before offset, or at the start when
+     * the offset is unknown (-1)
+     */
+    private String describeMismatch(String expectation, long offset) {
+        final long start = Math.max(0, offset - EXCERPT_BYTES / 4);
+        try {
+            final long baselineSize = resultFromBaseline.size();
+            final long underTestSize = resultUnderTest.size();
+            final String sizes = baselineSize <= EXCERPT_BYTES && underTestSize <= EXCERPT_BYTES
+                    ? ""
+                    : offset < 0
+                    ? String.format("  Outputs of %d and %d bytes differ%n", baselineSize, underTestSize)
+                    : String.format("  Outputs of %d and %d bytes differ from byte %d%n", baselineSize, underTestSize, offset);
+            return sizes + String.format(
+                    "  %s: '%s'" + System.lineSeparator() +
+                            "  But got: '%s'" + System.lineSeparator()
+                    , expectation, resultFromBaseline.excerpt(start, EXCERPT_BYTES),
+                    resultUnderTest.excerpt(start, EXCERPT_BYTES));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -189,22 +337,48 @@ public class TransformCompareWithTransformResults implements TransformResults {
      * @return instance of self exposing assertion methods and {@link #evaluate()}
      */
     public TransformCompareWithTransformResults outputsIdenticalXml(String... rule) {
+        return outputsIdenticalXml(DiffEngine.XMLUNIT, rule);
+    }
+
+    /**
+     * Experimental: asserts that the XML are <i>semantically</i> identical (f.i.: node order may differ), using the
+     * given {@link DiffEngine}<br>
+     * {@link DiffEngine#HASHED} finds the same kind of differences in near-linear time, which pays off for outputs
+     * with many sibling elements
+     * @param engine the engine finding the differences
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     */
+    public TransformCompareWithTransformResults outputsIdenticalXml(DiffEngine engine, String... rule) {
         final String report = LogUtil.mkRule(
                 "SEMANTICALLY EQUAL BASELINE OUPUT"
                 , rule);
+        if (skipping(report)) {
+            return this;
+        }
 
-        final Diff diff = DiffBuilder.compare(resultFromBaseline).withTest(resultUnderTest)
-                .ignoreWhitespace()
-                .withNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byNameAndText))
-                .checkForSimilar().build();
+        final List<String> differences = new ArrayList<>();
+        final PhaseTimer timer = PhaseTimer.start(Phase.DIFF, stylesheet, report);
+        try {
+            // identical canonical forms cannot differ semantically, so the diff only runs when the digests differ
+            if (!canonicallyEqual(SEMANTIC_FAST_PATH)) {
+                differences.addAll(diff(engine));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (XMLStreamException e) {
+            differences.add("Got unparsable XML output: " + e.getMessage());
+        } finally {
+            timer.stop();
+        }
 
-        if (diff.getDifferences().iterator().hasNext()) {
+        if (!differences.isEmpty()) {
             LogUtil.indent(String.format("%s (%s)", report, FAILED), 2, logBack);
         } else {
             LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
         }
 
-        for (Difference difference : diff.getDifferences()) {
+        for (String difference : differences) {
             errors.add(new AssertionError(report +
                     System.lineSeparator() +
                     difference
@@ -223,27 +397,75 @@ public class TransformCompareWithTransformResults implements TransformResults {
      * @throws XPathExpressionException when the xpath is not valid, or namespace is not declared in {@link #usingNamespace(String, String)}
      */
     public TransformCompareWithTransformResults hasMatchingXPathResultsFor(String xPath, String... rule) throws XPathExpressionException {
-        final List<Object> xpathResults;
-        final List<Object> expected;
+        return hasMatchingXPathResultsFor(xPath, XPathMatchMode.CONTAINS, rule);
+    }
 
-        try {
-            baselineEvaluator.loadDocument();
-        } catch (SAXException | IOException | ParserConfigurationException e) {
-            errors.add(new AssertionError("Got unparsable XML output from baseline stylesheet"));
+    /**
+     * Asserts that the {@link String}-values resulting from the given xpath match in both outputted XML's, as
+     * determined by the {@link XPathMatchMode}<br>
+     * {@link XPathMatchMode#MULTISET} and {@link XPathMatchMode#ORDERED} count the results in one pass, so they
+     * suit xpaths which select very many nodes, like all identifiers of a large export
+     * @param xPath the xpath on the output XML
+     * @param mode how the results are matched
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     * @throws XPathExpressionException when the xpath is not valid, or namespace is not declared in {@link #usingNamespace(String, String)}
+     */
+    public TransformCompareWithTransformResults hasMatchingXPathResultsFor(String xPath, XPathMatchMode mode,
+                                                                         String... rule) throws XPathExpressionException {
+        final String defaultRule = mode == XPathMatchMode.CONTAINS
+                ? "MATCH XPATH " + xPath
+                : "MATCH XPATH " + xPath + " (" + mode + ")";
+        if (skipping(mkRule(defaultRule, rule))) {
             return this;
         }
+        if (!loadDocuments()) {
+            return this;
+        }
+
+        final List<Object> xpathResults = resultEvaluator.getXpathResult(xPath);
+        final List<Object> expected = baselineEvaluator.getXpathResult(xPath);
+
+        if (mode == XPathMatchMode.CONTAINS) {
+            matchContains(xPath, expected, xpathResults, rule);
+        } else {
+            matchMultiset(xPath, expected, xpathResults, mode == XPathMatchMode.ORDERED, mkRule(defaultRule, rule));
+        }
+
+        return this;
+    }
+
+    /**
+     * Parses both outputs concurrently, adding an error when either is not well-formed
+     */
+    private boolean loadDocuments() {
+        final CompletableFuture<Void> baselineLoaded = Futures.supplyAsync(() -> {
+            baselineEvaluator.loadDocument();
+            return null;
+        }, executor);
 
+        boolean underTestParsed = true;
         try {
             resultEvaluator.loadDocument();
-        } catch (SAXException | IOException | ParserConfigurationException e) {
-            errors.add(new AssertionError("Got unparsable XML output from stylesheet under test"));
-            return this;
+        } catch (SaxonApiException e) {
+            underTestParsed = false;
         }
 
-        xpathResults = resultEvaluator.getXpathResult(xPath);
-        expected = baselineEvaluator.getXpathResult(xPath);
+        try {
+            Futures.join(baselineLoaded, SaxonApiException.class);
+        } catch (SaxonApiException e) {
+            errors.add(new AssertionError("Got unparsable XML output from baseline stylesheet"));
+            return false;
+        }
 
+        if (!underTestParsed) {
+            errors.add(new AssertionError("Got unparsable XML output from stylesheet under test"));
+            return false;
+        }
+        return true;
+    }
 
+    private void matchContains(String xPath, List<Object> expected, List<Object> xpathResults, String[] rule) {
         if (xpathResults.size() > expected.size()) {
             errors.add(new AssertionError("MATCH XPATH " + xPath + String.format(
                     System.lineSeparator() +
@@ -253,13 +475,13 @@ public class TransformCompareWithTransformResults implements TransformResults {
             )));
         }
 
-
+        final Set<Object> actualResults = new HashSet<>(xpathResults);
         for (Object expectedResult : expected) {
             final String report = LogUtil.mkRule(
                     "MATCH XPATH " + xPath + "='" + expectedResult + "'"
                     , rule);
 
-            if (!xpathResults.contains(expectedResult)) {
+            if (!actualResults.contains(expectedResult)) {
                 final String actual = xpathResults.size() == 1
                         ? "" + xpathResults.get(0)
                         : xpathResults.size() == 0
@@ -279,7 +501,197 @@ public class TransformCompareWithTransformResults implements TransformResults {
                 LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
             }
         }
+    }
 
+    /**
+     * Counts every baseline result up and every result under test down, so whatever is left over is either missing
+     * (positive) or extra (negative)
+     */
+    private void matchMultiset(String xPath, List<Object> expected, List<Object> xpathResults, boolean ordered,
+                               String report) {
+        final Map<Object, Integer> counts = new LinkedHashMap<>();
+        for (Object expectedResult : expected) {
+            counts.merge(expectedResult, 1, Integer::sum);
+        }
+        for (Object actualResult : xpathResults) {
+            counts.merge(actualResult, -1, Integer::sum);
+        }
+
+        final StringBuilder missing = new StringBuilder();
+        final StringBuilder extra = new StringBuilder();
+        int missingValues = 0;
+        int extraValues = 0;
+        for (Map.Entry<Object, Integer> count : counts.entrySet()) {
+            if (count.getValue() > 0) {
+                appendCount(missing, missingValues++, count.getKey(), count.getValue());
+            } else if (count.getValue() < 0) {
+                appendCount(extra, extraValues++, count.getKey(), -count.getValue());
+            }
+        }
+
+        final StringBuilder failure = new StringBuilder();
+        if (missingValues > 0) {
+            failure.append(String.format("  Missing %d distinct values:%s%s", missingValues, missing,
+                    omitted(missingValues)));
+        }
+        if (extraValues > 0) {
+            failure.append(String.format("  Got %d unexpected distinct values:%s%s", extraValues, extra,
+                    omitted(extraValues)));
+        }
+        if (ordered && failure.length() == 0) {
+            for (int i = 0; i < expected.size(); i++) {
+                if (!expected.get(i).equals(xpathResults.get(i))) {
+                    failure.append(String.format("  Expected xpath %s to result in the same order, but at position %d" +
+                                    " expected: '%s'" + System.lineSeparator() + "  But got: '%s'" + System.lineSeparator(),
+                            xPath, i + 1, expected.get(i), xpathResults.get(i)));
+                    break;
+                }
+            }
+        }
+
+        if (failure.length() > 0) {
+            errors.add(new AssertionError(report + String.format(
+                    System.lineSeparator() +
+                            "  Expected xpath %s to result in: %d items" + System.lineSeparator() +
+                            "  And got: %d items" + System.lineSeparator()
+                    , xPath, expected.size(), xpathResults.size()
+            ) + failure));
+            LogUtil.indent(String.format("%s (%s)", report, FAILED), 2, logBack);
+        } else {
+            LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
+        }
+    }
+
+    private static void appendCount(StringBuilder sb, int index, Object value, int count) {
+        if (index < MAX_REPORTED_VALUES) {
+            sb.append(String.format("%n    '%s' (%dx)", value, count));
+        }
+    }
+
+    private static String omitted(int values) {
+        return values > MAX_REPORTED_VALUES
+                ? String.format("%n    ... (%d values omitted)%n", values - MAX_REPORTED_VALUES)
+                : System.lineSeparator();
+    }
+
+    /**
+     * Asserts that the stylesheet under test is not significantly slower than the baseline, allowing the given
+     * relative slowdown (see {@link #performsNoWorseThanBaseline(double, int, int, String...)}), using
+     * 5 warm-up and 30 measured iterations
+     * @param tolerance the allowed relative slowdown, f.i. 0.1 for 10%
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     * @throws TransformerException when one of the stylesheets fails
+     */
+    public TransformCompareWithTransformResults performsNoWorseThanBaseline(double tolerance, String... rule)
+            throws TransformerException {
+        return performsNoWorseThanBaseline(tolerance, DEFAULT_WARM_UPS, DEFAULT_ITERATIONS, rule);
+    }
+
+    /**
+     * Asserts that the stylesheet under test is not significantly slower than the baseline, allowing the given
+     * relative slowdown<br>
+     * Both stylesheets transform the same input with the same parameters, interleaved (alternating which one goes
+     * first), on the calling thread. After the warm-up, the wall clock times of the measured iterations are
+     * compared: the assertion fails when a one-sided Mann-Whitney U test finds the stylesheet under test slower than
+     * the baseline times (1 + tolerance) at the 5% significance level. The failure reports the median and p95 of both;
+     * the p95 is informative only, it is not checked against the tolerance.<br>
+     * The input is parsed again for this assertion, so the results do not hold on to the parsed input in the
+     * meantime; a {@link ParsedSource} is reused.
+     * @param tolerance the allowed relative slowdown, f.i. 0.1 for 10%
+     * @param warmUps the number of discarded iterations per stylesheet
+     * @param iterations the number of measured iterations per stylesheet, at least 5
+     * @param rule name of the assertion
+     * @return instance of self exposing assertion methods and {@link #evaluate()}
+     * @throws TransformerException when one of the stylesheets fails
+     */
+    public TransformCompareWithTransformResults performsNoWorseThanBaseline(double tolerance, int warmUps, int iterations,
+                                                                            String... rule) throws TransformerException {
+        if (iterations < 5) {
+            throw new IllegalArgumentException("at least 5 iterations are needed");
+        }
+        if (underTest.isWritingOutputToStream()) {
+            throw new IllegalStateException("performsNoWorseThanBaseline cannot be combined with writingOutputTo(OutputStream)");
+        }
+        final String report = mkRule(String.format("PERFORMS NO WORSE THAN BASELINE (+%.0f%%)", tolerance * 100), rule);
+        if (skipping(report)) {
+            return this;
+        }
+
+        final XdmNode sourceTree = sourceParser.parse();
+        for (int i = 0; i < warmUps; i++) {
+            baseline.getTransformResult(sourceTree.asSource(), parameters).release();
+            underTest.getTransformResult(sourceTree.asSource(), parameters).release();
+        }
+        final double[] baselineMillis = new double[iterations];
+        final double[] underTestMillis = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            if (i % 2 == 0) {
+                baselineMillis[i] = millis(baseline.getTransformResult(sourceTree.asSource(), parameters));
+                underTestMillis[i] = millis(underTest.getTransformResult(sourceTree.asSource(), parameters));
+            } else {
+                underTestMillis[i] = millis(underTest.getTransformResult(sourceTree.asSource(), parameters));
+                baselineMillis[i] = millis(baseline.getTransformResult(sourceTree.asSource(), parameters));
+            }
+        }
+
+        final double[] toleratedMillis = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            toleratedMillis[i] = baselineMillis[i] * (1 + tolerance);
+        }
+        final double p = LatencyStatistics.mannWhitneyGreaterP(underTestMillis, toleratedMillis);
+
+        if (p < SIGNIFICANCE) {
+            errors.add(new AssertionError(String.format(
+                    "%s" + System.lineSeparator() +
+                            "  Expected stylesheet under test to be at most %.0f%% slower than baseline" + System.lineSeparator() +
+                            "  But got: median %.2f ms, p95 %.2f ms (baseline: median %.2f ms, p95 %.2f ms; p=%.4f)" + System.lineSeparator()
+                    , report, tolerance * 100
+                    , LatencyStatistics.median(underTestMillis), LatencyStatistics.percentile(underTestMillis, 95)
+                    , LatencyStatistics.median(baselineMillis), LatencyStatistics.percentile(baselineMillis, 95), p
+            )));
+            LogUtil.indent(String.format("%s (%s)", report, FAILED), 2, logBack);
+        } else {
+            LogUtil.indent(String.format("%s (%s)", report, OK), 2, logBack);
+        }
         return this;
     }
+
+    private static double millis(TransformOutput output) {
+        output.release();
+        return output.getMeasurement().getWallNanos() / 1e6;
+    }
+
+    private List<String> diff(DiffEngine engine) throws IOException, XMLStreamException {
+        try (InputStream baseline = resultFromBaseline.openStream(); InputStream underTest = resultUnderTest.openStream()) {
+            if (engine == DiffEngine.HASHED) {
+                return HashedDiff.diff(baseline, underTest);
+            }
+            final Diff diff = DiffBuilder.compare(baseline).withTest(underTest)
+                    .ignoreWhitespace()
+                    .withNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byNameAndText))
+                    .checkForSimilar().build();
+            final List<String> differences = new ArrayList<>();
+            for (Difference difference : diff.getDifferences()) {
+                differences.add(difference.toString());
+            }
+            return differences;
+        }
+    }
+
+    private boolean canonicallyEqual(Canonicalization canonicalization) throws IOException, XMLStreamException {
+        return Arrays.equals(resultFromBaseline.canonicalDigest(canonicalization),
+                resultUnderTest.canonicalDigest(canonicalization));
+    }
+
+    /**
+     * When failing fast after a failure, reports the assertion as skipped
+     */
+    private boolean skipping(String report) {
+        if (failFast && !errors.isEmpty()) {
+            LogUtil.indent(String.format("%s (%s)", report, SKIPPED), 2, logBack);
+            return true;
+        }
+        return false;
+    }
 }
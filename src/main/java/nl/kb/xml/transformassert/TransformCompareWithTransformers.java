@@ -1,36 +1,55 @@
 package nl.kb.xml.transformassert;
 
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
-import java.io.ByteArrayInputStream;
+import javax.xml.transform.stream.StreamSource;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 /**
  * An instance of this class is returned by {@link TransformAssertWithTransformer#whenComparingTo(File)}
  * <p>It exposes methods to declare the xml {@link File} or {@link String} to run both stylesheets against</p>
+ * <p>The xml is parsed once into a read-only tree, which both stylesheets transform concurrently
+ * (see {@link #usingExecutor(Executor)}). When the transformation under test fails, the baseline transformation
+ * is cancelled: it does not start, or it is aborted at its next output element.</p>
  */
 public class TransformCompareWithTransformers {
     private final TransformAssertWithTransformer underTest;
     private final TransformAssertWithTransformer baseline;
-    private String sourceXmlPath;
-    private String sourceXmlString;
+    private Executor executor = ForkJoinPool.commonPool();
 
     TransformCompareWithTransformers(TransformAssertWithTransformer underTest, TransformAssertWithTransformer baseline) {
         this.underTest = underTest;
         this.baseline = baseline;
     }
 
+    /**
+     * Declares the {@link Executor} on which the baseline transformation (and loading of its output) runs,
+     * concurrently with the transformation under test<br>
+     * Defaults to {@link ForkJoinPool#commonPool()}
+     * @param executor the {@link Executor}
+     * @return this instance of {@link TransformCompareWithTransformers}
+     */
+    public TransformCompareWithTransformers usingExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
 
     /**
-     * Declares the xml {@link File} to be transformed by both XSTL stylesheets
+     * Declares the xml {@link File} to be transformed by both XSTL stylesheets<br>
+     * The file is read as bytes, so the parser uses the encoding of the xml declaration.
      * @param xmlFile the xml {@link File}
      * @param parameters tuples of XSLT {@link String}-parameters
      * @return instance of {@link TransformCompareWithTransformResults}
@@ -39,22 +58,10 @@ public class TransformCompareWithTransformers {
      * @throws TransformerException when the XML file cannot be parsed by Saxon
      */
     public TransformCompareWithTransformResults whenTransforming(File xmlFile, String... parameters) throws FileNotFoundException, UnsupportedEncodingException, TransformerException {
-        Reader reader1 = null;
-        Reader reader2 = null;
-
-        try {
-            reader1 = new InputStreamReader(new FileInputStream(xmlFile), StandardCharsets.UTF_8.name());
-            reader2 = new InputStreamReader(new FileInputStream(xmlFile), StandardCharsets.UTF_8.name());
-            this.sourceXmlPath = xmlFile.getAbsolutePath();
-
-            final byte[] resultUnderTest = underTest.getTransformResult(reader1, parameters);
-            final byte[] resultFromBaseline = baseline.getTransformResult(reader2, parameters);
-
-            return new TransformCompareWithTransformResults(this, resultFromBaseline, resultUnderTest);
-        } finally {
-            try {  if (reader1 != null) { reader1.close(); } } catch (IOException ignore) {  }
-            try {  if (reader2 != null) { reader2.close(); } } catch (IOException ignore) {  }
+        if (!xmlFile.isFile()) {
+            throw new FileNotFoundException(xmlFile.getAbsolutePath());
         }
+        return transform(parse(xmlFile), xmlFile.getAbsolutePath(), () -> parse(xmlFile), parameters);
     }
 
     /**
@@ -66,24 +73,157 @@ public class TransformCompareWithTransformers {
      * @throws TransformerException when the XML file cannot be parsed by Saxon
      */
     public TransformCompareWithTransformResults whenTransforming(String xml, String... parameters) throws UnsupportedEncodingException, TransformerException {
+        return transform(parse(new StreamSource(new StringReader(xml))), xml,
+                () -> parse(new StreamSource(new StringReader(xml))), parameters);
+    }
 
-        Reader reader1 = null;
-        Reader reader2 = null;
-        try {
-            reader1 = new InputStreamReader(new ByteArrayInputStream(xml.getBytes()), StandardCharsets.UTF_8.name());
-            reader2 = new InputStreamReader(new ByteArrayInputStream(xml.getBytes()), StandardCharsets.UTF_8.name());
-            this.sourceXmlString = xml;
+    /**
+     * Declares the pre-parsed xml to be transformed by both XSLT stylesheets, without parsing it again
+     * @param source the {@link ParsedSource} from {@link TransformAssert#source(File)}
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return instance of {@link TransformCompareWithTransformResults}
+     * @throws TransformerException when one of the stylesheets fails
+     */
+    public TransformCompareWithTransformResults whenTransforming(ParsedSource source, String... parameters) throws TransformerException {
+        // the baseline transforms the same tree, so it must use the same engine as well
+        source.checkEngine(baseline.getEngine());
+        return transform(source.getTree(underTest.getEngine()), source.getDescription(),
+                () -> source.getTree(underTest.getEngine()), parameters);
+    }
+
+    /**
+     * Declares the xml {@link File} to be transformed by both XSLT stylesheets on an {@link Executor}, so many
+     * comparisons can be in flight at once<br>
+     * The xml is parsed and both stylesheets run as separate tasks on the executor, without blocking any of its
+     * threads while waiting for another. The log lines of the result are collected and passed on to the log back
+     * in one block when it is evaluated (see {@link TransformResults#evaluateAsync(Executor)}).
+     * @param xmlFile the xml {@link File}
+     * @param executor the {@link Executor} to parse and transform the xml on
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return a {@link CompletableFuture} of the {@link TransformCompareWithTransformResults}, completed
+     * exceptionally with a {@link FileNotFoundException}, {@link IOException} or {@link TransformerException}
+     * when the xml cannot be read or transformed
+     */
+    public CompletableFuture<TransformCompareWithTransformResults> whenTransformingAsync(File xmlFile, Executor executor, String... parameters) {
+        final String sourceXml = xmlFile.getAbsolutePath();
+        return Futures.supplyAsync(() -> {
+            if (!xmlFile.isFile()) {
+                throw new FileNotFoundException(sourceXml);
+            }
+            return parse(xmlFile);
+        }, executor).thenCompose(sourceTree ->
+                transformAsync(sourceTree, sourceXml, () -> parse(xmlFile), executor, parameters));
+    }
 
-            final byte[] resultUnderTest = underTest.getTransformResult(reader1, parameters);
-            final byte[] resultFromBaseline = baseline.getTransformResult(reader2, parameters);
+    /**
+     * Declares the pre-parsed xml to be transformed by both XSLT stylesheets on an {@link Executor}
+     * (see {@link #whenTransformingAsync(File, Executor, String...)})
+     * @param source the {@link ParsedSource} from {@link TransformAssert#source(File)}
+     * @param executor the {@link Executor} to transform the xml on
+     * @param parameters tuples of XSLT {@link String}-parameters
+     * @return a {@link CompletableFuture} of the {@link TransformCompareWithTransformResults}, completed
+     * exceptionally with a {@link TransformerException} when one of the stylesheets fails
+     */
+    public CompletableFuture<TransformCompareWithTransformResults> whenTransformingAsync(ParsedSource source, Executor executor, String... parameters) {
+        // the baseline transforms the same tree, so it must use the same engine as well
+        source.checkEngine(baseline.getEngine());
+        return transformAsync(source.getTree(underTest.getEngine()), source.getDescription(),
+                () -> source.getTree(underTest.getEngine()), executor, parameters);
+    }
 
-            return new TransformCompareWithTransformResults(this, resultFromBaseline, resultUnderTest);
+    private XdmNode parse(File xmlFile) throws TransformerException {
+        final StreamSource source;
+        try {
+            source = InputSources.of(xmlFile.toPath());
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        }
+        try {
+            return parse(source);
         } finally {
-            try {  if (reader1 != null) { reader1.close(); } } catch (IOException ignore) {  }
-            try {  if (reader2 != null) { reader2.close(); } } catch (IOException ignore) {  }
+            InputSources.close(source);
         }
     }
 
+    private XdmNode parse(Source source) throws TransformerException {
+        try {
+            return underTest.getEngine().getProcessor().newDocumentBuilder().build(source);
+        } catch (SaxonApiException e) {
+            throw new TransformerException(e.getMessage(), e);
+        }
+    }
+
+    private CompletableFuture<TransformCompareWithTransformResults> transformAsync(XdmNode sourceTree, String sourceXml,
+                                                                                  SourceParser sourceParser,
+                                                                                  Executor executor, String... parameters) {
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final CompletableFuture<TransformOutput> baselineFuture =
+                transformBaseline(sourceTree, cancelled, executor, parameters);
+        final CompletableFuture<TransformOutput> underTestFuture =
+                Futures.supplyAsync(() -> underTest.getTransformResult(sourceTree.asSource(), parameters), executor);
+        underTestFuture.whenComplete((output, e) -> {
+            if (e != null) {
+                cancel(baselineFuture, cancelled);
+            }
+        });
+        baselineFuture.whenComplete((output, e) -> {
+            if (e != null) {
+                underTestFuture.thenAccept(TransformOutput::release);
+            }
+        });
+        return underTestFuture.thenCombine(baselineFuture, (resultUnderTest, resultFromBaseline) ->
+                new TransformCompareWithTransformResults(this, resultFromBaseline, resultUnderTest, sourceXml,
+                        sourceParser, parameters, new BufferedLogBack(getLogBack())));
+    }
+
+    private TransformCompareWithTransformResults transform(XdmNode sourceTree, String sourceXml, SourceParser sourceParser,
+                                                           String... parameters) throws TransformerException {
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final CompletableFuture<TransformOutput> baselineFuture =
+                transformBaseline(sourceTree, cancelled, executor, parameters);
+        final TransformOutput resultUnderTest;
+        try {
+            resultUnderTest = underTest.getTransformResult(sourceTree.asSource(), parameters);
+        } catch (TransformerException | RuntimeException e) {
+            cancel(baselineFuture, cancelled);
+            throw e;
+        }
+        final TransformOutput resultFromBaseline;
+        try {
+            resultFromBaseline = Futures.join(baselineFuture, TransformerException.class);
+        } catch (TransformerException | RuntimeException e) {
+            resultUnderTest.release();
+            throw e;
+        }
+
+        return new TransformCompareWithTransformResults(this, resultFromBaseline, resultUnderTest, sourceXml,
+                sourceParser, parameters, getLogBack());
+    }
+
+    /**
+     * Transforms with the baseline on the executor, unless the comparison was cancelled before the task started;
+     * a running baseline is aborted at its next output element once it is cancelled
+     */
+    private CompletableFuture<TransformOutput> transformBaseline(XdmNode sourceTree, AtomicBoolean cancelled,
+                                                                 Executor executor, String... parameters) {
+        return Futures.supplyAsync(() -> cancelled.get()
+                ? null
+                : baseline.getTransformResult(sourceTree.asSource(), cancelled::get, parameters), executor);
+    }
+
+    /**
+     * Cancels the baseline transformation after the transformation under test failed: a baseline which did not
+     * start yet does not run, a running one is aborted, and the output of one which was already done is released
+     */
+    private static void cancel(CompletableFuture<TransformOutput> baselineFuture, AtomicBoolean cancelled) {
+        cancelled.set(true);
+        baselineFuture.thenAccept(output -> {
+            if (output != null) {
+                output.release();
+            }
+        });
+    }
+
     Consumer<String> getLogBack() {
         return underTest.getLogBack();
     }
@@ -92,23 +232,23 @@ public class TransformCompareWithTransformers {
         return underTest.getTransformationOutput();
     }
 
-    List<TransformerException> getErrorsAndWarnings() {
-        return underTest.getErrorsAndWarnings();
+    Executor getExecutor() {
+        return executor;
     }
 
     TransformAssertWithTransformer getUnderTest() {
         return underTest;
     }
 
-    String getSourceXmlPath() {
-        return sourceXmlPath;
-    }
-
-    String getSourceXmlString() {
-        return sourceXmlString;
-    }
-
     TransformAssertWithTransformer getBaseline() {
         return baseline;
     }
+
+    /**
+     * Parses the input again, for assertions which transform it again
+     */
+    @FunctionalInterface
+    interface SourceParser {
+        XdmNode parse() throws TransformerException;
+    }
 }
@@ -0,0 +1,153 @@
+package nl.kb.xml.transformassert;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * An instance of this class is returned by
+ * {@link TransformAssertWithTransformer#whenTransformingAll(Path, String, AssertionPlan, String...)}
+ * <p>It holds the aggregated outcome of one {@link AssertionPlan} applied to every file of a corpus</p>
+ */
+public class TransformCorpusResults {
+    private static final int MAX_LISTED = 10;
+
+    private final List<BatchRunner.Outcome> outcomes;
+    private final Consumer<String> logBack;
+    private final String xslt;
+    private final String corpus;
+
+    TransformCorpusResults(TransformAssertWithTransformer transformAssertWithTransformer, String corpus,
+                           List<BatchRunner.Outcome> outcomes) {
+        this.outcomes = outcomes;
+        this.logBack = transformAssertWithTransformer.getLogBack();
+        this.xslt = transformAssertWithTransformer.getXsltPath() != null
+                ? transformAssertWithTransformer.getXsltPath()
+                : transformAssertWithTransformer.getXsltString();
+        this.corpus = corpus;
+    }
+
+    /**
+     * @return the number of files transformed
+     */
+    public int getTotalCount() {
+        return outcomes.size();
+    }
+
+    /**
+     * @return the number of files for which all assertions passed
+     */
+    public int getPassedCount() {
+        return (int) outcomes.stream().filter(BatchRunner.Outcome::isPassed).count();
+    }
+
+    /**
+     * @return the number of files for which at least one assertion failed
+     */
+    public int getFailedCount() {
+        return getTotalCount() - getPassedCount() - getSkippedCount();
+    }
+
+    /**
+     * @return the number of files not (completely) transformed, because another file failed while failing fast
+     */
+    public int getSkippedCount() {
+        return (int) outcomes.stream().filter(BatchRunner.Outcome::isSkipped).count();
+    }
+
+    /**
+     * @return the failed files
+     */
+    public List<Path> getFailedFiles() {
+        return outcomes.stream()
+                .filter(outcome -> !outcome.isPassed() && !outcome.isSkipped())
+                .map(outcome -> Paths.get(outcome.getLabel()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return per rule the number of files for which it failed, most frequent first
+     */
+    public Map<String, Integer> getFailuresPerRule() {
+        final Map<String, Integer> failuresPerRule = new LinkedHashMap<>();
+        for (BatchRunner.Outcome outcome : outcomes) {
+            for (String rule : outcome.getFailedRules()) {
+                failuresPerRule.merge(rule, 1, Integer::sum);
+            }
+        }
+        return failuresPerRule.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * @param count the maximum number of files to return
+     * @return the files which took longest to transform and assert, slowest first
+     */
+    public List<Path> getSlowestFiles(int count) {
+        return slowest(count).stream().map(outcome -> Paths.get(outcome.getLabel())).collect(Collectors.toList());
+    }
+
+    /**
+     * Logs the aggregated report
+     * @throws AssertionError when the assertions failed for any of the files
+     */
+    public void evaluate() {
+        logBack.accept("DESCRIBE:");
+        LogUtil.indent(xslt, 2, logBack);
+
+        logBack.accept(System.lineSeparator() + "WHEN TRANSFORMING ALL:");
+        LogUtil.indent(corpus, 2, logBack);
+
+        logBack.accept(System.lineSeparator() + "RESULTS:");
+        LogUtil.indent(String.format("TOTAL: %d", getTotalCount()), 2, logBack);
+        LogUtil.indent(String.format("PASSED: %d", getPassedCount()), 2, logBack);
+        LogUtil.indent(String.format("FAILED: %d", getFailedCount()), 2, logBack);
+        if (getSkippedCount() > 0) {
+            LogUtil.indent(String.format("SKIPPED: %d", getSkippedCount()), 2, logBack);
+        }
+
+        logBack.accept(System.lineSeparator() + "SLOWEST:");
+        for (BatchRunner.Outcome outcome : slowest(MAX_LISTED)) {
+            LogUtil.indent(String.format("%d ms %s", TimeUnit.NANOSECONDS.toMillis(outcome.getNanos()),
+                    outcome.getLabel()), 2, logBack);
+        }
+        logBack.accept(String.format("===================================================%s", System.lineSeparator()));
+
+        if (getFailedCount() > 0) {
+            logBack.accept("FAILURES PER RULE:");
+            for (Map.Entry<String, Integer> failure : getFailuresPerRule().entrySet()) {
+                LogUtil.indent(String.format("%d %s", failure.getValue(), failure.getKey()), 2, logBack);
+            }
+
+            logBack.accept(System.lineSeparator() + "FAILED FILES:");
+            final List<Path> failedFiles = getFailedFiles();
+            for (Path failedFile : failedFiles.subList(0, Math.min(MAX_LISTED, failedFiles.size()))) {
+                LogUtil.indent(failedFile.toString(), 2, logBack);
+            }
+            if (failedFiles.size() > MAX_LISTED) {
+                LogUtil.indent(String.format("... and %d more", failedFiles.size() - MAX_LISTED), 2, logBack);
+            }
+            logBack.accept(String.format("===================================================%s", System.lineSeparator()));
+
+            throw new AssertionError(String.format("Assertions failed for %d of %d files in %s",
+                    getFailedCount(), getTotalCount(), corpus));
+        }
+    }
+
+    private List<BatchRunner.Outcome> slowest(int count) {
+        final List<BatchRunner.Outcome> sorted = outcomes.stream()
+                .filter(outcome -> !outcome.isSkipped())
+                .collect(Collectors.toList());
+        sorted.sort(Comparator.comparingLong(BatchRunner.Outcome::getNanos).reversed());
+        return Collections.unmodifiableList(sorted.subList(0, Math.min(count, sorted.size())));
+    }
+}
@@ -0,0 +1,140 @@
+package nl.kb.xml.transformassert;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * An instance of this class is returned by
+ * {@link TransformAssertWithTransformer#whenTransformingMatrix(File, ParameterMatrix, AssertionPlan)}
+ * <p>It holds the outcome of one {@link AssertionPlan} applied to the output of every parameter combination</p>
+ */
+public class TransformMatrixResults {
+    private final List<String> names;
+    private final List<String[]> combinations;
+    private final List<BatchRunner.Outcome> outcomes;
+    private final Consumer<String> logBack;
+    private final String xslt;
+    private final String source;
+
+    TransformMatrixResults(TransformAssertWithTransformer transformAssertWithTransformer, String source,
+                           ParameterMatrix matrix, List<String[]> combinations, List<BatchRunner.Outcome> outcomes) {
+        this.names = matrix.getNames();
+        this.combinations = combinations;
+        this.outcomes = outcomes;
+        this.logBack = transformAssertWithTransformer.getLogBack();
+        this.xslt = transformAssertWithTransformer.getXsltPath() != null
+                ? transformAssertWithTransformer.getXsltPath()
+                : transformAssertWithTransformer.getXsltString();
+        this.source = source;
+    }
+
+    /**
+     * @return the number of parameter combinations transformed
+     */
+    public int getTotalCount() {
+        return outcomes.size();
+    }
+
+    /**
+     * @return the number of combinations for which all assertions passed
+     */
+    public int getPassedCount() {
+        return (int) outcomes.stream().filter(BatchRunner.Outcome::isPassed).count();
+    }
+
+    /**
+     * @return the number of combinations for which at least one assertion failed
+     */
+    public int getFailedCount() {
+        return getTotalCount() - getPassedCount() - getSkippedCount();
+    }
+
+    /**
+     * @return the number of combinations not (completely) transformed, because another one failed while failing fast
+     */
+    public int getSkippedCount() {
+        return (int) outcomes.stream().filter(BatchRunner.Outcome::isSkipped).count();
+    }
+
+    /**
+     * @return the failed combinations, as tuples of XSLT {@link String}-parameters
+     */
+    public List<String[]> getFailedCombinations() {
+        final List<String[]> failed = new ArrayList<>();
+        for (int i = 0; i < outcomes.size(); i++) {
+            if (!outcomes.get(i).isPassed() && !outcomes.get(i).isSkipped()) {
+                failed.add(combinations.get(i).clone());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Logs a table with the status of every combination, followed by the failed rules per failed combination
+     * @throws AssertionError when the assertions failed for any of the combinations
+     */
+    public void evaluate() {
+        logBack.accept("DESCRIBE:");
+        LogUtil.indent(xslt, 2, logBack);
+
+        logBack.accept(System.lineSeparator() + "WHEN TRANSFORMING:");
+        LogUtil.indent(source, 2, logBack);
+
+        logBack.accept(System.lineSeparator() + "WITH PARAMETER MATRIX:");
+        for (String line : toTable()) {
+            LogUtil.indent(line, 2, logBack);
+        }
+        LogUtil.indent(String.format("PASSED: %d of %d", getPassedCount(), getTotalCount()), 2, logBack);
+        if (getSkippedCount() > 0) {
+            LogUtil.indent(String.format("SKIPPED: %d", getSkippedCount()), 2, logBack);
+        }
+        logBack.accept(String.format("===================================================%s", System.lineSeparator()));
+
+        if (getFailedCount() > 0) {
+            logBack.accept("FAILURES:");
+            for (int i = 0; i < outcomes.size(); i++) {
+                if (!outcomes.get(i).getFailedRules().isEmpty()) {
+                    LogUtil.indent(outcomes.get(i).getLabel(), 2, logBack);
+                    for (String rule : outcomes.get(i).getFailedRules()) {
+                        LogUtil.indent(rule, 4, logBack);
+                    }
+                }
+            }
+            logBack.accept(String.format("===================================================%s", System.lineSeparator()));
+
+            throw new AssertionError(String.format("Assertions failed for %d of %d parameter combinations",
+                    getFailedCount(), getTotalCount()));
+        }
+    }
+
+    private List<String> toTable() {
+        final int[] widths = new int[names.size()];
+        for (int column = 0; column < names.size(); column++) {
+            widths[column] = names.get(column).length();
+            for (String[] combination : combinations) {
+                widths[column] = Math.max(widths[column], combination[column * 2 + 1].length());
+            }
+        }
+
+        final List<String> table = new ArrayList<>();
+        final StringBuilder header = new StringBuilder(String.format("%-7s %6s", "STATUS", "MS"));
+        for (int column = 0; column < names.size(); column++) {
+            header.append("  ").append(String.format("%-" + widths[column] + "s", names.get(column)));
+        }
+        table.add(header.toString().trim());
+        for (int i = 0; i < outcomes.size(); i++) {
+            final StringBuilder row = new StringBuilder(String.format("%-7s %6d",
+                    outcomes.get(i).isSkipped() ? "SKIPPED" : outcomes.get(i).isPassed() ? "PASSED" : "FAILED",
+                    TimeUnit.NANOSECONDS.toMillis(outcomes.get(i).getNanos())));
+            for (int column = 0; column < names.size(); column++) {
+                row.append("  ").append(String.format("%-" + widths[column] + "s",
+                        combinations.get(i)[column * 2 + 1]));
+            }
+            table.add(row.toString().trim());
+        }
+        return table;
+    }
+}
@@ -0,0 +1,260 @@
+package nl.kb.xml.transformassert;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XdmNode;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The output of one transformation: either the serialized bytes, a file holding the serialized bytes,
+ * or the result tree which is serialized only when the bytes are actually needed
+ */
+class TransformOutput {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final XdmNode tree;
+    private final Processor processor;
+    private final Properties outputProperties;
+    private final Path file;
+    private final boolean temporary;
+    private final Map<Canonicalization, byte[]> digests = new ConcurrentHashMap<>();
+    private List<StreamingValidation.Run> validations = Collections.emptyList();
+    private List<TransformerException> warnings = Collections.emptyList();
+    private Measurement measurement = Measurement.NONE;
+    private byte[] bytes;
+
+    private TransformOutput(byte[] bytes, Path file, boolean temporary, XdmNode tree, Processor processor,
+                            Properties outputProperties) {
+        this.bytes = bytes;
+        this.file = file;
+        this.temporary = temporary;
+        this.tree = tree;
+        this.processor = processor;
+        this.outputProperties = outputProperties;
+    }
+
+    static TransformOutput of(byte[] bytes) {
+        return new TransformOutput(bytes, null, false, null, null, null);
+    }
+
+    static TransformOutput of(Path file) {
+        return new TransformOutput(null, file, false, null, null, null);
+    }
+
+    /**
+     * @return the output held by a temporary file, which {@link #release()} deletes
+     */
+    static TransformOutput ofTemporary(Path file) {
+        return new TransformOutput(null, file, true, null, null, null);
+    }
+
+    static TransformOutput of(XdmNode tree, Processor processor, Properties outputProperties) {
+        return new TransformOutput(null, null, false, tree, processor, outputProperties);
+    }
+
+    TransformOutput withValidations(List<StreamingValidation.Run> validations) {
+        this.validations = validations;
+        return this;
+    }
+
+    List<StreamingValidation.Run> getValidations() {
+        return validations;
+    }
+
+    TransformOutput withWarnings(List<TransformerException> warnings) {
+        this.warnings = warnings;
+        return this;
+    }
+
+    TransformOutput withMeasurement(Measurement measurement) {
+        this.measurement = measurement;
+        return this;
+    }
+
+    /**
+     * @return the time and allocations of the transformation producing this output
+     */
+    Measurement getMeasurement() {
+        return measurement;
+    }
+
+    /**
+     * @return the xslt warnings and recoverable errors reported while producing this output
+     */
+    List<TransformerException> getWarnings() {
+        return warnings;
+    }
+
+    XdmNode getTree() {
+        return tree;
+    }
+
+    /**
+     * @return a stream over the serialized output; when the output lives in a file it is memory-mapped in stead of
+     * copied to the heap
+     * @throws IOException when the output file cannot be read
+     */
+    InputStream openStream() throws IOException {
+        if (file != null && bytes == null) {
+            return new MappedInputStream(file);
+        }
+        return new ByteArrayInputStream(getBytes());
+    }
+
+    /**
+     * Compares the serialized output byte for byte, without keeping a copy of it on the heap
+     * @return the offset of the first byte which differs, or -1 when both are equal
+     */
+    long mismatch(byte[] expected) throws IOException {
+        try (InputStream in = openStream()) {
+            return mismatch(in, new ByteArrayInputStream(expected));
+        }
+    }
+
+    /**
+     * @return true when the output lives in a file and is not on the heap, so it should only be read in parts
+     */
+    synchronized boolean isFileBacked() {
+        return file != null && bytes == null;
+    }
+
+    /**
+     * Compares the serialized output byte for byte with another one, without keeping a copy of either on the heap
+     * @return the offset of the first byte which differs, or -1 when both are equal
+     */
+    long mismatch(TransformOutput other) throws IOException {
+        try (InputStream in = openStream(); InputStream otherIn = other.openStream()) {
+            return mismatch(in, otherIn);
+        }
+    }
+
+    /**
+     * @return the size of the serialized output in bytes
+     */
+    long size() throws IOException {
+        if (file != null && bytes == null) {
+            return Files.size(file);
+        }
+        return getBytes().length;
+    }
+
+    /**
+     * Decodes at most length bytes of the serialized output as UTF-8, starting at offset, without reading the rest;
+     * marks the omitted start or end with an ellipsis
+     */
+    String excerpt(long offset, int length) throws IOException {
+        try (InputStream in = openStream()) {
+            long skipped = 0;
+            while (skipped < offset) {
+                final long skip = in.skip(offset - skipped);
+                if (skip <= 0) {
+                    break;
+                }
+                skipped += skip;
+            }
+            final byte[] buffer = new byte[length + 1];
+            int read = 0;
+            int next;
+            while (read < buffer.length && (next = in.read(buffer, read, buffer.length - read)) > 0) {
+                read += next;
+            }
+            final boolean truncated = read > length;
+            int start = 0;
+            int end = Math.min(read, length);
+            // do not start or end halfway a multi-byte character
+            while (skipped > 0 && start < end && (buffer[start] & 0xC0) == 0x80) {
+                start++;
+            }
+            if (truncated) {
+                while (end > start && (buffer[end] & 0xC0) == 0x80) {
+                    end--;
+                }
+            }
+            return (skipped > 0 ? "..." : "")
+                    + new String(buffer, start, end - start, StandardCharsets.UTF_8)
+                    + (truncated ? "..." : "");
+        }
+    }
+
+    /**
+     * @return the digest of the canonical form of the output, computed once per canonicalization
+     * @throws XMLStreamException when the output is not well-formed xml
+     */
+    byte[] canonicalDigest(Canonicalization canonicalization) throws IOException, XMLStreamException {
+        final byte[] cached = digests.get(canonicalization);
+        if (cached != null) {
+            return cached;
+        }
+        try (InputStream in = openStream()) {
+            final byte[] digest = canonicalization.digest(in);
+            digests.put(canonicalization, digest);
+            return digest;
+        }
+    }
+
+    /**
+     * Deletes the temporary file holding the output, if any; the output must not be read afterwards
+     */
+    void release() {
+        if (temporary) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // still deleted on exit
+            }
+        }
+    }
+
+    synchronized byte[] getBytes() {
+        if (bytes == null && file != null) {
+            try {
+                bytes = Files.readAllBytes(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read transformation output from " + file, e);
+            }
+        } else if (bytes == null) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final Serializer serializer = processor.newSerializer(out);
+            serializer.setDefaultOutputProperties(outputProperties);
+            try {
+                serializer.serializeNode(tree);
+            } catch (SaxonApiException e) {
+                throw new IllegalStateException("Failed to serialize transformation output", e);
+            }
+            bytes = out.toByteArray();
+        }
+        return bytes;
+    }
+
+    private static long mismatch(InputStream a, InputStream b) throws IOException {
+        final InputStream left = new BufferedInputStream(a, BUFFER_SIZE);
+        final InputStream right = new BufferedInputStream(b, BUFFER_SIZE);
+        long offset = 0;
+        int next;
+        do {
+            next = left.read();
+            if (next != right.read()) {
+                return offset;
+            }
+            offset++;
+        } while (next != -1);
+        return -1;
+    }
+}
@@ -1,6 +1,8 @@
 package nl.kb.xml.transformassert;
 
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -55,4 +57,18 @@ public interface TransformResults {
      * @throws UnsupportedEncodingException when UTF-8 is not supported
      */
     void evaluate(boolean listXsltWarnings, Consumer<String> failureConsumer) throws UnsupportedEncodingException;
+
+    /**
+     * Executes all evaluations on an {@link Executor}, as {@link #evaluate()} does<br>
+     * Combined with deferred assertions, the assertions themselves run on the executor as well.
+     * @param executor the {@link Executor} to evaluate on
+     * @return a {@link CompletableFuture} completed when all evaluations passed, or completed exceptionally with
+     * the first {@link AssertionError}
+     */
+    default CompletableFuture<Void> evaluateAsync(Executor executor) {
+        return Futures.supplyAsync(() -> {
+            evaluate();
+            return null;
+        }, executor);
+    }
 }
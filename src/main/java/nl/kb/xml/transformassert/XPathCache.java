@@ -0,0 +1,125 @@
+package nl.kb.xml.transformassert;
+
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Process-wide, bounded cache of compiled xpath expressions<br>
+ * Used by the xpath assertions, so an expression applied to many outputs is only compiled once.
+ * <p>Expressions are keyed on their text plus the namespaces declared with
+ * {@link TransformResults#usingNamespace(String, String)}. Compiled expressions are never shared
+ * between different {@link SaxonEngine}s. The least recently used entry is evicted when the cache is full.</p>
+ */
+public final class XPathCache {
+    private static final int DEFAULT_MAXIMUM_SIZE = 1024;
+    private static final XPathCache INSTANCE = new XPathCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final LruCache<Key, XPathExecutable> cache;
+
+    private XPathCache(int maximumSize) {
+        this.cache = new LruCache<>(maximumSize);
+    }
+
+    /**
+     * Returns the process-wide instance of the cache
+     * @return the {@link XPathCache}
+     */
+    public static XPathCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum number of compiled expressions to keep, evicting least recently used entries when needed
+     * @param maximumSize the maximum number of entries, 0 disables caching
+     */
+    public void setMaximumSize(int maximumSize) {
+        cache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * @return the maximum number of compiled expressions kept
+     */
+    public int getMaximumSize() {
+        return cache.getMaximumSize();
+    }
+
+    /**
+     * @return the number of compiled expressions currently cached
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups served from the cache
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of lookups which required compiling the expression
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return the fraction of lookups served from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        return cache.getHitRate();
+    }
+
+    /**
+     * Removes all entries from the cache and resets the counters
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    XPathExecutable get(SaxonEngine engine, String xPath, Map<String, String> namespaces) throws SaxonApiException {
+        final Map<String, String> bindings = new TreeMap<>(namespaces);
+        return cache.get(new Key(engine, xPath, bindings), () -> {
+            final XPathCompiler compiler = engine.getProcessor().newXPathCompiler();
+            for (Map.Entry<String, String> namespace : bindings.entrySet()) {
+                compiler.declareNamespace(namespace.getKey(), namespace.getValue());
+            }
+            return compiler.compile(xPath);
+        });
+    }
+
+    private static final class Key {
+        private final SaxonEngine engine;
+        private final String xPath;
+        private final Map<String, String> namespaces;
+
+        private Key(SaxonEngine engine, String xPath, Map<String, String> namespaces) {
+            this.engine = engine;
+            this.xPath = xPath;
+            this.namespaces = namespaces;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return engine == key.engine && xPath.equals(key.xPath) && namespaces.equals(key.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(engine), xPath, namespaces);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package nl.kb.xml.transformassert;
+
+/**
+ * How {@link TransformCompareWithTransformResults#hasMatchingXPathResultsFor(String, XPathMatchMode, String...)}
+ * matches the xpath results of the output under test with those of the baseline
+ */
+public enum XPathMatchMode {
+    /**
+     * Every baseline result must occur among the results under test, and there must not be more of those;
+     * reports each baseline result as a rule of its own (default)
+     */
+    CONTAINS,
+
+    /**
+     * Both outputs must yield the same results, each the same number of times, in any order; reports the missing
+     * and the extra results with their counts as one rule
+     */
+    MULTISET,
+
+    /**
+     * Like {@link #MULTISET}, and the results must also come in the same order; reports the first position at
+     * which they differ
+     */
+    ORDERED
+}
@@ -1,98 +1,232 @@
 package nl.kb.xml.transformassert;
 
-import net.sf.saxon.xpath.XPathFactoryImpl;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
 
-import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 class XpathEvaluator {
-    private static final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-    private final byte[] transformationOutput;
-    private final Map<String, String> namespaces = new HashMap<>();
-    private Document doc = null;
-    private final XPathFactoryImpl xPathFactory;
+    static final String STREAMING = "STREAMING";
+    static final String TREE = "TREE";
+
+    private final TransformOutput transformationOutput;
+    private volatile Map<String, String> namespaces = Collections.emptyMap();
+    private final SaxonEngine engine;
+    private final String stylesheet;
+    private final Map<String, List<Object>> results = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> streamedItems = new ConcurrentHashMap<>();
+    private final Map<String, String> evaluationPaths = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile XdmNode doc = null;
+    private boolean streaming = false;
+
+    XpathEvaluator(TransformOutput transformationOutput, SaxonEngine engine, String stylesheet) {
+        this.engine = engine;
+        this.transformationOutput = transformationOutput;
+        this.stylesheet = stylesheet;
+    }
 
-    static {
-        dbf.setNamespaceAware(true);
+    synchronized void loadDocument() throws SaxonApiException {
+        if (doc == null) {
+            if (transformationOutput.getTree() != null) {
+                doc = transformationOutput.getTree();
+            } else {
+                final PhaseTimer timer = PhaseTimer.start(Phase.PARSING, stylesheet, null);
+                try (InputStream in = transformationOutput.openStream()) {
+                    doc = engine.getProcessor().newDocumentBuilder().build(new StreamSource(in));
+                } catch (IOException e) {
+                    throw new SaxonApiException(e);
+                } finally {
+                    timer.stop();
+                }
+            }
+        }
     }
 
-    XpathEvaluator(byte[] transformationOutput) {
-        this.xPathFactory = new XPathFactoryImpl();
-        this.transformationOutput = transformationOutput;
+    /**
+     * Declares a namespace for the xpaths evaluated from now on; a snapshot taken earlier by
+     * {@link #getNamespaces()} is not affected
+     */
+    synchronized void addNamespace(String key, String value) {
+        final Map<String, String> declared = new TreeMap<>(namespaces);
+        declared.put(key, value);
+        namespaces = Collections.unmodifiableMap(declared);
+    }
 
+    /**
+     * @return an immutable snapshot of the namespaces declared so far
+     */
+    Map<String, String> getNamespaces() {
+        return namespaces;
     }
 
-    void loadDocument() throws IOException, SAXException, ParserConfigurationException {
-        if (doc == null) {
-            final DocumentBuilder documentBuilder = dbf.newDocumentBuilder();
-            doc = documentBuilder.parse(new ByteArrayInputStream(transformationOutput));
+    List<Object> getXpathResult(String xPath) throws XPathExpressionException {
+        return getXpathResult(xPath, XPathConstants.NODESET, namespaces);
+    }
+
+    /**
+     * Evaluates each distinct xpath (and result type and namespaces) once; later calls with the same xpath get the
+     * same result
+     */
+    List<Object> getXpathResult(String xPath, QName type, Map<String, String> namespaces) throws XPathExpressionException {
+        try {
+            return results.computeIfAbsent(type + " " + key(xPath, namespaces), key -> {
+                try {
+                    return Collections.unmodifiableList(evaluate(xPath, type, namespaces));
+                } catch (XPathExpressionException e) {
+                    throw new UncheckedXPathException(e);
+                }
+            });
+        } catch (UncheckedXPathException e) {
+            throw e.getCause();
         }
     }
 
-    void addNamespace(String key, String value) {
-        namespaces.put(key, value);
+    private List<Object> evaluate(String xPath, QName type, Map<String, String> namespaces)
+            throws XPathExpressionException {
+        final List<String> items;
+        if (getStreamable(xPath, namespaces) != null) {
+            prefetch(Collections.singletonList(xPath), namespaces);
+            items = streamedItems.get(key(xPath, namespaces));
+        } else {
+            items = evaluateOnTree(xPath, namespaces);
+        }
+
+        final List<Object> result = new ArrayList<>();
+        if (XPathConstants.NUMBER.equals(type)) {
+            result.add(toNumber(items).intValue());
+        } else {
+            for (String item : items) {
+                result.add(item.trim());
+            }
+        }
+        return result;
     }
 
-    List<Object> getXpathResult(String xPath) throws XPathExpressionException {
-        return getXpathResult(xPath, XPathConstants.NODESET);
+    private List<String> evaluateOnTree(String xPath, Map<String, String> namespaces) throws XPathExpressionException {
+        evaluationPaths.put(xPath, TREE);
+        final PhaseTimer timer = PhaseTimer.start(Phase.XPATH, stylesheet, xPath);
+        try {
+            final XPathSelector selector = XPathCache.getInstance().get(engine, xPath, namespaces).load();
+            selector.setContextItem(doc);
+            final List<String> items = new ArrayList<>();
+            for (XdmItem item : selector.evaluate()) {
+                items.add(item.getStringValue());
+            }
+            return items;
+        } catch (SaxonApiException e) {
+            throw new XPathExpressionException(e);
+        } finally {
+            timer.stop();
+        }
     }
 
-    List<Object> getXpathResult(String xPath, QName type) throws XPathExpressionException {
+    /**
+     * Evaluates all streamable xpaths which were not evaluated yet in one pass over the serialized output
+     * @param xPaths the xpaths, of which the ones outside the streamable subset are ignored
+     * @param namespaces the namespaces the xpaths are declared with
+     * @throws XPathExpressionException when the output cannot be parsed
+     */
+    synchronized void prefetch(Collection<String> xPaths, Map<String, String> namespaces)
+            throws XPathExpressionException {
+        final List<StreamingXpath> pending = new ArrayList<>();
+        for (String xPath : new LinkedHashSet<>(xPaths)) {
+            final StreamingXpath streamingXpath = getStreamable(xPath, namespaces);
+            if (streamingXpath != null && !streamedItems.containsKey(key(xPath, namespaces))) {
+                pending.add(streamingXpath);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
 
-        final XPath xpath = xPathFactory.newXPath();
+        final String rule = pending.stream().map(StreamingXpath::getXpath).collect(Collectors.joining(" | "));
+        final PhaseTimer timer = PhaseTimer.start(Phase.XPATH, stylesheet, rule);
+        try (InputStream in = transformationOutput.openStream()) {
+            for (Map.Entry<StreamingXpath, List<String>> entry : StreamingXpath.evaluate(in, pending).entrySet()) {
+                streamedItems.put(key(entry.getKey().getXpath(), namespaces), entry.getValue());
+                evaluationPaths.put(entry.getKey().getXpath(), STREAMING);
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new XPathExpressionException("Got unparsable XML output from stylesheet: " + e.getMessage());
+        } finally {
+            timer.stop();
+        }
+    }
 
+    /**
+     * @return true when the xpath needs the tree from {@link #loadDocument()}, false when it is streamed
+     */
+    boolean needsDocument(String xPath, Map<String, String> namespaces) {
+        return getStreamable(xPath, namespaces) == null;
+    }
 
-        if (!namespaces.keySet().isEmpty()) {
-            xpath.setNamespaceContext(new NamespaceContext() {
-                @Override
-                public String getNamespaceURI(String prefix) {
-                    if (namespaces.containsKey(prefix)) {
-                        return namespaces.get(prefix);
-                    }
-                    return null;
-                }
+    void enableStreaming() {
+        this.streaming = true;
+    }
 
-                @Override
-                public String getPrefix(String namespaceURI) {
-                    return null;
-                }
+    boolean isStreaming() {
+        return streaming;
+    }
 
-                @Override
-                public Iterator getPrefixes(String namespaceURI) {
-                    return null;
-                }
-            });
+    /**
+     * @return per evaluated xpath, in order of evaluation, whether it was STREAMING or evaluated on the TREE
+     */
+    Map<String, String> getEvaluationPaths() {
+        synchronized (evaluationPaths) {
+            return new LinkedHashMap<>(evaluationPaths);
         }
+    }
 
-        final XPathExpression expression = xpath.compile(xPath);
-        final Object xpathResult = expression.evaluate(doc, type);
-        final List<Object> result = new ArrayList<>();
-        if (xpathResult instanceof NodeList) {
-            final NodeList nodes = (NodeList) xpathResult;
-            for (int i = 0; i < nodes.getLength(); i++) {
-                result.add(nodes.item(i).getTextContent().trim());
-            }
-        } else if (xpathResult instanceof Double) {
-            result.add(((Double) xpathResult).intValue());
+    private StreamingXpath getStreamable(String xPath, Map<String, String> namespaces) {
+        if (!streaming || transformationOutput.getTree() != null) {
+            return null;
         }
+        return StreamingXpath.compile(xPath, namespaces);
+    }
 
-        return result;
+    private static String key(String xPath, Map<String, String> namespaces) {
+        return namespaces + " " + xPath;
+    }
+
+    private static Double toNumber(List<String> items) {
+        if (items.isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(items.get(0).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static class UncheckedXPathException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private UncheckedXPathException(XPathExpressionException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized XPathExpressionException getCause() {
+            return (XPathExpressionException) super.getCause();
+        }
     }
 }
@@ -1,23 +1,71 @@
 package nl.kb.xml.transformasserttests;
 
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.value.EmptySequence;
+import net.sf.saxon.value.SequenceType;
+import nl.kb.xml.transformassert.AggregatingMetricsListener;
+import nl.kb.xml.transformassert.Canonicalization;
+import nl.kb.xml.transformassert.DiffEngine;
+import nl.kb.xml.transformassert.OutputLogPolicy;
+import nl.kb.xml.transformassert.ParameterMatrix;
+import nl.kb.xml.transformassert.ParsedSource;
+import nl.kb.xml.transformassert.Phase;
+import nl.kb.xml.transformassert.SaxonEngine;
+import nl.kb.xml.transformassert.SchemaCache;
+import nl.kb.xml.transformassert.TemplatesCache;
+import nl.kb.xml.transformassert.TransformAssert;
+import nl.kb.xml.transformassert.TransformAssertWithTransformResult;
 import nl.kb.xml.transformassert.TransformAssertWithTransformer;
+import nl.kb.xml.transformassert.TransformCompareWithTransformResults;
+import nl.kb.xml.transformassert.TransformCorpusResults;
+import nl.kb.xml.transformassert.TransformMatrixResults;
+import nl.kb.xml.transformassert.XPathCache;
+import nl.kb.xml.transformassert.XPathMatchMode;
 import org.junit.Test;
 import org.xml.sax.SAXException;
 
 import javax.xml.transform.TransformerException;
 import javax.xml.xpath.XPathExpressionException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 import static nl.kb.xml.transformassert.TransformAssert.describe;
 import static nl.kb.xml.transformassert.TransformAssertWithTransformResult.describeXml;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsCollectionContaining.hasItems;
 
@@ -363,4 +411,1160 @@ public class TransformAssertTest {
         }
     }
 
+    @Test
+    public void compiledStylesheetsAreCached() throws IOException, TransformerException {
+        final TemplatesCache cache = TemplatesCache.getInstance();
+        cache.invalidate(new File("./src/test/resources/1.xslt"));
+
+        final long misses = cache.getMissCount();
+        final long hits = cache.getHitCount();
+        describe(new File("./src/test/resources/1.xslt"));
+        describe(new File("./src/test/resources/1.xslt"));
+
+        assertThat(cache.getMissCount() - misses, is(1L));
+        assertThat(cache.getHitCount() - hits, is(1L));
+
+        cache.invalidate(new File("./src/test/resources/1.xslt"));
+        describe(new File("./src/test/resources/1.xslt"))
+                .whenTransforming(XML)
+                .isEqualto("bar")
+                .evaluate();
+
+        assertThat(cache.getMissCount() - misses, is(2L));
+    }
+
+    @Test
+    public void supportsCustomSaxonEngine() throws IOException, TransformerException, XPathExpressionException {
+        final SaxonEngine engine = new SaxonEngine(new Configuration());
+        final long misses = TemplatesCache.getInstance().getMissCount();
+
+        describe(new File("./src/test/resources/3.xslt"), engine, System.out::println, null)
+                .whenTransforming(XML)
+                .hasXpathContaining("//foo/text()", "foo")
+                .evaluate();
+
+        describe(new File("./src/test/resources/3.xslt"), new SaxonEngine(), System.out::println, null);
+
+        assertThat(TemplatesCache.getInstance().getMissCount() - misses, is(2L));
+    }
+
+    @Test
+    public void evaluatesXpathsOnResultTree() throws IOException, TransformerException, XPathExpressionException, SAXException {
+        describe(new File("./src/test/resources/5.xslt"))
+                .usingResultTree()
+                .whenTransforming(XML, "param1", "param1-value", "param2", "param2-value")
+                .hasXpathContaining("/output/one/text()", "bar")
+                .andHasXpathContaining("count(/output/two)", 2)
+                .andDoesNotHaveXpathContaining("/output/two[2]/text()", "param1-value")
+                .andValidatesAgainstXSD(new File("src/test/resources/1.xsd"))
+                .evaluate();
+
+        describe(XSLT)
+                .usingResultTree()
+                .whenTransforming(XML)
+                .isEqualto("bar")
+                .evaluate();
+
+        describe(new File("./src/test/resources/3.xslt"))
+                .usingResultTree()
+                .whenComparingTo(new File("./src/test/resources/3.xslt"))
+                .whenTransforming(XML)
+                .hasMatchingXPathResultsFor("/output/foo/text()")
+                .hasEqualOutputs()
+                .evaluate();
+    }
+
+    @Test
+    public void compiledXpathsAreCached() throws IOException, XPathExpressionException {
+        final XPathCache cache = XPathCache.getInstance();
+        final long misses = cache.getMissCount();
+        final long hits = cache.getHitCount();
+
+        for (int i = 0; i < 3; i++) {
+            describeXml(("<ns:root xmlns:ns=\"urn:cached\"><ns:foo>" + i + "</ns:foo></ns:root>").getBytes())
+                    .usingNamespace("ns", "urn:cached")
+                    .hasXpathContaining("/ns:root/ns:foo/text()", "" + i)
+                    .evaluate();
+        }
+
+        assertThat(cache.getMissCount() - misses, is(1L));
+        assertThat(cache.getHitCount() - hits, is(2L));
+    }
+
+    @Test
+    public void compiledSchemasAreCached() throws IOException, TransformerException, SAXException {
+        final SchemaCache cache = SchemaCache.getInstance();
+        cache.invalidate(new File("src/test/resources/1.xsd"));
+        final long misses = cache.getMissCount();
+        final long hits = cache.getHitCount();
+
+        describe(new File("./src/test/resources/5.xslt"))
+                .whenTransforming(XML, "param1", "param1-value", "param2", "param2-value")
+                .validatesAgainstXSD(new File("src/test/resources/1.xsd"))
+                .andValidatesAgainstXSD(new File("./src/test/resources/1.xsd"))
+                .evaluate();
+
+        assertThat(cache.getMissCount() - misses, is(1L));
+        assertThat(cache.getHitCount() - hits, is(1L));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void validatesAgainstXSDThrowsWhenXsdIsMissing() throws IOException, TransformerException, SAXException {
+        describe(new File("./src/test/resources/5.xslt"))
+                .whenTransforming(XML)
+                .validatesAgainstXSD(new File("src/test/resources/missing.xsd"));
+    }
+
+    @Test
+    public void validatesAgainstXSDWhileTransforming() throws IOException, TransformerException, SAXException {
+        final List<String> messages = new ArrayList<>();
+
+        try {
+            describe(new File("./src/test/resources/5.xslt"), messages::add)
+                    .whileValidatingAgainstXSD(new File("src/test/resources/1.xsd"), "valideert tegen 1.xsd")
+                    .whileValidatingAgainstXSD(new File("src/test/resources/2.xsd"), "valideert niet tegen 2.xsd")
+                    .whenTransforming(XML, "param1", "param1-value", "param2", "param2-value")
+                    .evaluate();
+        } catch (AssertionError e) {
+            // assert error
+        }
+
+        final List<String> trimmedMessages = messages.stream().map(String::trim).collect(toList());
+        assertThat(trimmedMessages, hasItems(
+                is("valideert tegen 1.xsd (OK)"),
+                is("valideert niet tegen 2.xsd (FAILED)"),
+                containsString("Expected output to validate against XSD")
+        ));
+    }
+
+    @Test
+    public void runsComparisonOnCustomExecutor() throws IOException, TransformerException, XPathExpressionException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            describe(new File("./src/test/resources/3.xslt"))
+                    .whenComparingTo(new File("./src/test/resources/3.xslt"))
+                    .usingExecutor(executor)
+                    .whenTransforming(new File("./src/test/resources/1.xml"))
+                    .hasMatchingXPathResultsFor("/output/bar[@attrib='bar']/text()")
+                    .hasEqualOutputs()
+                    .evaluate();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void transformsTheBaselineWhileTransformingUnderTest() throws IOException, TransformerException, XPathExpressionException {
+        // the baseline may only start once the transformation under test has completed, which deadlocks
+        // (until the timeout) when both are not in flight at the same time
+        final CountDownLatch underTestTransformed = new CountDownLatch(1);
+        final AtomicBoolean baselineWaited = new AtomicBoolean(false);
+        TransformAssert.setMetricsListener(metrics -> {
+            if (metrics.getPhase() == Phase.TRANSFORMATION) {
+                underTestTransformed.countDown();
+            }
+        });
+        try {
+            describe(new File("./src/test/resources/3.xslt"))
+                    .whenComparingTo(new File("./src/test/resources/3.xslt"))
+                    .usingExecutor(task -> new Thread(() -> {
+                        try {
+                            baselineWaited.set(underTestTransformed.await(10, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        task.run();
+                    }).start())
+                    .whenTransforming(new File("./src/test/resources/1.xml"))
+                    .hasEqualOutputs()
+                    .evaluate();
+        } finally {
+            TransformAssert.setMetricsListener(null);
+        }
+
+        assertThat(baselineWaited.get(), is(true));
+    }
+
+    @Test
+    public void cancelsTheBaselineWhenTheTransformationUnderTestFails() throws IOException, TransformerException, InterruptedException {
+        final String failing = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:template match=\"/\"><xsl:message terminate=\"yes\">failed</xsl:message></xsl:template>" +
+                "</xsl:stylesheet>";
+        final List<Runnable> queued = new ArrayList<>();
+        final AggregatingMetricsListener metrics = new AggregatingMetricsListener();
+        TransformAssert.setMetricsListener(metrics);
+        try {
+            try {
+                describe(failing, line -> { })
+                        .whenComparingTo(new File("./src/test/resources/3.xslt"))
+                        .usingExecutor(queued::add)
+                        .whenTransforming(XML);
+                throw new AssertionError("expected the transformation to fail");
+            } catch (TransformerException e) {
+                assertThat(queued.size(), is(1));
+            }
+            final long transformations = metrics.getCount(Phase.TRANSFORMATION);
+            queued.forEach(Runnable::run);
+
+            assertThat(metrics.getCount(Phase.TRANSFORMATION), is(transformations));
+        } finally {
+            TransformAssert.setMetricsListener(null);
+        }
+
+        // a baseline which is already running is aborted at its next output element
+        final CountDownLatch baselineStarted = new CountDownLatch(1);
+        final AtomicLong baselineElements = new AtomicLong();
+        final Configuration configuration = new Configuration();
+        configuration.registerExtensionFunction(extensionFunction("tick", () -> {
+            baselineElements.incrementAndGet();
+            baselineStarted.countDown();
+        }));
+        configuration.registerExtensionFunction(extensionFunction("await", () -> {
+            try {
+                baselineStarted.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        final String failingAfterBaselineStarted = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"" +
+                " xmlns:t=\"urn:test\"><xsl:template match=\"/\"><xsl:sequence select=\"t:await()\"/>" +
+                "<xsl:message terminate=\"yes\">failed</xsl:message></xsl:template></xsl:stylesheet>";
+        final String longRunning = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"" +
+                " xmlns:t=\"urn:test\"><xsl:template match=\"/\"><output><xsl:for-each select=\"1 to 10000000\">" +
+                "<i><xsl:sequence select=\"t:tick()\"/></i></xsl:for-each></output></xsl:template></xsl:stylesheet>";
+        final List<Thread> threads = new ArrayList<>();
+        try {
+            describe(failingAfterBaselineStarted, new SaxonEngine(configuration), line -> { }, line -> { })
+                    .whenComparingTo(longRunning)
+                    .usingExecutor(task -> {
+                        final Thread thread = new Thread(task);
+                        threads.add(thread);
+                        thread.start();
+                    })
+                    .whenTransforming(XML);
+            throw new AssertionError("expected the transformation to fail");
+        } catch (TransformerException e) {
+            assertThat(threads.size(), is(1));
+        }
+        threads.get(0).join();
+
+        assertThat(baselineElements.get() < 10000000, is(true));
+    }
+
+    /**
+     * An extension function in the urn:test namespace which runs the action and returns the empty sequence
+     */
+    private static ExtensionFunctionDefinition extensionFunction(String name, Runnable action) {
+        return new ExtensionFunctionDefinition() {
+            @Override
+            public StructuredQName getFunctionQName() {
+                return new StructuredQName("t", "urn:test", name);
+            }
+
+            @Override
+            public SequenceType[] getArgumentTypes() {
+                return new SequenceType[0];
+            }
+
+            @Override
+            public SequenceType getResultType(SequenceType[] suppliedArgumentTypes) {
+                return SequenceType.EMPTY_SEQUENCE;
+            }
+
+            @Override
+            public boolean hasSideEffects() {
+                return true;
+            }
+
+            @Override
+            public ExtensionFunctionCall makeCallExpression() {
+                return new ExtensionFunctionCall() {
+                    @Override
+                    public Sequence call(XPathContext context, Sequence[] arguments) {
+                        action.run();
+                        return EmptySequence.getInstance();
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    public void appliesAssertionPlanToCorpus()throws IOException, TransformerException {
+        final Path corpus = Files.createTempDirectory("corpus");
+        try {
+            Files.write(corpus.resolve("1.xml"), XML.getBytes(StandardCharsets.UTF_8));
+            Files.write(corpus.resolve("2.xml"), XML.getBytes(StandardCharsets.UTF_8));
+            Files.write(corpus.resolve("3.xml"), "<root><foo>baz</foo></root>".getBytes(StandardCharsets.UTF_8));
+            Files.write(corpus.resolve("ignored.txt"), XML.getBytes(StandardCharsets.UTF_8));
+
+            final TransformCorpusResults results = describe(new File("./src/test/resources/5.xslt"))
+                    .whenTransformingAll(corpus, "*.xml", result -> result
+                            .hasXpathContaining("/output/one/text()", "bar", "one moet bar zijn"));
+
+            assertThat(results.getTotalCount(), is(3));
+            assertThat(results.getPassedCount(), is(2));
+            assertThat(results.getFailuresPerRule().get("one moet bar zijn"), is(1));
+            assertThat(results.getFailedFiles(), contains(corpus.resolve("3.xml")));
+
+            try {
+                results.evaluate();
+            } catch (AssertionError e) {
+                assertThat(e.getMessage(), containsString("1 of 3 files"));
+                return;
+            }
+            throw new AssertionError("expected evaluate to fail");
+        } finally {
+            deleteRecursively(corpus);
+        }
+    }
+
+    @Test
+    public void matchesTopLevelAndNestedFilesWithADoubleStarGlob() throws IOException, TransformerException {
+        final Path corpus = Files.createTempDirectory("corpus");
+        try {
+            Files.createDirectories(corpus.resolve("nested"));
+            Files.write(corpus.resolve("top.xml"), XML.getBytes(StandardCharsets.UTF_8));
+            Files.write(corpus.resolve("nested").resolve("deep.xml"), XML.getBytes(StandardCharsets.UTF_8));
+            Files.write(corpus.resolve("nested").resolve("ignored.txt"), XML.getBytes(StandardCharsets.UTF_8));
+
+            final TransformCorpusResults results = describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenTransformingAll(corpus, "**/*.xml", result -> result
+                            .hasXpathContaining("/output/one/text()", "bar"));
+
+            assertThat(results.getTotalCount(), is(2));
+            assertThat(results.getPassedCount(), is(2));
+        } finally {
+            deleteRecursively(corpus);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void streamsOutputToFileAndSpillsToDisk() throws IOException, TransformerException, XPathExpressionException, SAXException {
+        final Path output = Files.createTempFile("output", ".xml");
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        describe(new File("./src/test/resources/5.xslt"))
+                .writingOutputTo(output)
+                .whenTransforming(XML, "param1", "param1-value", "param2", "param2-value")
+                .hasXpathContaining("/output/one/text()", "bar")
+                .andValidatesAgainstXSD(new File("src/test/resources/1.xsd"))
+                .evaluate();
+
+        describe(new File("./src/test/resources/5.xslt"))
+                .writingOutputTo(copy)
+                .spillingOutputToDiskAbove(16)
+                .whenTransforming(XML, "param1", "param1-value", "param2", "param2-value")
+                .isEqualto(new String(Files.readAllBytes(output), StandardCharsets.UTF_8))
+                .evaluate();
+
+        assertThat(new String(copy.toByteArray(), StandardCharsets.UTF_8), containsString("<one>bar</one>"));
+        Files.delete(output);
+    }
+
+    @Test
+    public void deletesSpilledOutputOnceEvaluated() throws IOException, TransformerException, XPathExpressionException {
+        final long spilledBefore = countSpilledOutputs();
+        final TransformAssertWithTransformResult result = describe(new File("./src/test/resources/5.xslt"))
+                .spillingOutputToDiskAbove(16)
+                .whenTransforming(XML)
+                .hasXpathContaining("/output/one/text()", "bar");
+        assertThat(countSpilledOutputs(), is(spilledBefore + 1));
+
+        result.evaluate();
+
+        assertThat(countSpilledOutputs(), is(spilledBefore));
+    }
+
+    @Test(expected = TransformerException.class)
+    public void failsTheTransformationWhenTheOutputCannotBeWritten() throws IOException, TransformerException {
+        final OutputStream unflushable = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        describe(new File("./src/test/resources/5.xslt"))
+                .writingOutputTo(unflushable)
+                .whenTransforming(XML);
+    }
+
+    private static long countSpilledOutputs() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().matches("transform-assert.*\\.out")).count();
+        }
+    }
+
+    @Test
+    public void logsOutputAccordingToPolicy() throws IOException, TransformerException, XPathExpressionException {
+        final List<String> passing = new ArrayList<>();
+        describe(new File("./src/test/resources/5.xslt"), passing::add)
+                .loggingOutput(OutputLogPolicy.onFailureOnly())
+                .whenTransforming(XML)
+                .hasXpathContaining("/output/one/text()", "bar")
+                .evaluate();
+
+        assertThat(passing.contains("OUTPUT:"), is(false));
+        assertThat(passing.stream().anyMatch(line -> line.contains("<one>")), is(false));
+
+        final List<String> truncated = new ArrayList<>();
+        describe(new File("./src/test/resources/5.xslt"), truncated::add)
+                .loggingOutput(OutputLogPolicy.headAndTail(1))
+                .whenTransforming(XML)
+                .evaluate();
+
+        assertThat(truncated, hasItems(
+                is("  <?xml version=\"1.0\" encoding=\"UTF-8\"?>"),
+                is("  ... (4 lines omitted)"),
+                is("  </output>")
+        ));
+    }
+
+    @Test
+    public void reportsPhaseMetrics() throws IOException, TransformerException, XPathExpressionException, SAXException {
+        final AggregatingMetricsListener metrics = new AggregatingMetricsListener();
+        TransformAssert.setMetricsListener(metrics);
+        try {
+            TemplatesCache.getInstance().invalidateAll();
+            describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenTransforming(XML)
+                    .hasXpathContaining("/output/one/text()", "bar")
+                    .andValidatesAgainstXSD(new File("src/test/resources/1.xsd"))
+                    .evaluate();
+        } finally {
+            TransformAssert.setMetricsListener(null);
+        }
+
+        for (Phase phase : new Phase[] {Phase.COMPILATION, Phase.TRANSFORMATION, Phase.PARSING, Phase.XPATH,
+                Phase.VALIDATION, Phase.LOGGING}) {
+            assertThat(phase.name(), metrics.getCount(phase), is(1L));
+        }
+        assertThat(metrics.toCsv(), containsString("XPATH,\"" + new File("./src/test/resources/5.xslt").getAbsolutePath()
+                + "\",\"/output/one/text()\",1,"));
+        assertThat(metrics.toTable(), containsString("TRANSFORMATION"));
+    }
+
+    @Test
+    public void runsDeferredAssertionsAtEvaluate() throws IOException, TransformerException, XPathExpressionException, SAXException {
+        final List<String> messages = new ArrayList<>();
+        final AggregatingMetricsListener metrics = new AggregatingMetricsListener();
+        TransformAssert.setMetricsListener(metrics);
+        try {
+            describe(new File("./src/test/resources/5.xslt"), messages::add)
+                    .deferringAssertions()
+                    .whenTransforming(XML, "param1", "param1-value", "param2", "param2-value")
+                    .hasXpathContaining("/output/two/text()", "param1-value", "eerste")
+                    .andValidatesAgainstXSD(new File("src/test/resources/1.xsd"), "xsd")
+                    .andHasXpathContaining("/output/two/text()", "param2-value", "tweede")
+                    .andHasXpathContaining("/output/[", "bar", "ongeldig")
+                    .evaluate();
+            throw new IllegalStateException("expected the invalid xpath to fail");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("ongeldig"));
+        } finally {
+            TransformAssert.setMetricsListener(null);
+        }
+
+        final List<String> trimmedMessages = messages.stream().map(String::trim).collect(toList());
+        final int first = trimmedMessages.indexOf("eerste (OK)");
+        assertThat(trimmedMessages.subList(first, first + 4), contains(
+                "eerste (OK)", "xsd (OK)", "tweede (OK)", "ongeldig (FAILED)"));
+        assertThat(metrics.getCount(Phase.PARSING), is(1L));
+        // the duplicate xpath is evaluated once, the invalid one is attempted
+        assertThat(metrics.getCount(Phase.XPATH), is(2L));
+    }
+
+    @Test
+    public void streamsXpathsInTheStreamableSubset() throws IOException, TransformerException, XPathExpressionException {
+        final String identity = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:template match=\"/\"><xsl:copy-of select=\".\"/></xsl:template></xsl:stylesheet>";
+        final String xml = "<r xmlns:x=\"urn:x\"><a id=\"1\"><b>one</b><b>two</b></a>" +
+                "<a id=\"2\"><b> three </b><x:c>four<!-- c -->five</x:c></a></r>";
+
+        for (boolean deferring : new boolean[] {false, true}) {
+            final List<String> messages = new ArrayList<>();
+            final TransformAssertWithTransformer transformer = describe(identity, messages::add).usingStreamingXpath();
+            if (deferring) {
+                transformer.deferringAssertions();
+            }
+            transformer.whenTransforming(xml)
+                    .usingNamespace("x", "urn:x")
+                    .hasXpathContaining("/r/a[@id='2']/b/text()", "three")
+                    .andHasXpathContaining("//b[2]/text()", "two")
+                    .andHasXpathContaining("count(//b)", 3)
+                    .andHasXpathContaining("//a/@id", "2")
+                    .andHasXpathContaining("/r/a[2]/x:c", "fourfive")
+                    .andHasXpathContaining("/r/a[2]/x:c/text()", "five")
+                    .andHasXpathContaining("/r/*[1]/b[1]", "one")
+                    .andDoesNotHaveXpathContaining("//a[1]/b/text()", "three")
+                    .andHasXpathContaining("/r/a[last()]/@id", "2")
+                    .evaluate();
+
+            final List<String> trimmedMessages = messages.stream().map(String::trim).collect(toList());
+            assertThat(trimmedMessages, hasItems(
+                    is("XPATH EVALUATION:"),
+                    is("STREAMING: count(//b)"),
+                    is("STREAMING: /r/a[2]/x:c"),
+                    is("TREE: /r/a[last()]/@id")
+            ));
+        }
+    }
+
+    @Test
+    public void evaluatesDeferredXpathsWithTheNamespacesDeclaredBeforeThem() throws IOException, TransformerException, XPathExpressionException {
+        final String identity = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:template match=\"/\"><xsl:copy-of select=\".\"/></xsl:template></xsl:stylesheet>";
+        final String xml = "<r xmlns:a=\"urn:a\" xmlns:b=\"urn:b\"><a:c>first</a:c><b:c>second</b:c></r>";
+
+        for (boolean streaming : new boolean[] {false, true}) {
+            final TransformAssertWithTransformer transformer = describe(identity, line -> { }).deferringAssertions();
+            if (streaming) {
+                transformer.usingStreamingXpath();
+            }
+            transformer.whenTransforming(xml)
+                    .usingNamespace("x", "urn:a")
+                    .hasXpathContaining("/r/x:c", "first")
+                    .andUsingNamespace("x", "urn:b")
+                    .andHasXpathContaining("/r/x:c", "second")
+                    .evaluate();
+        }
+    }
+
+    @Test
+    public void transformsRawBytesUsingTheDeclaredEncoding()throws IOException, TransformerException, XPathExpressionException {
+        final byte[] latin1 = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><root><foo>caf\u00e9</foo></root>"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        final Path xmlFile = Files.createTempFile("latin1", ".xml");
+        try {
+            Files.write(xmlFile, latin1);
+
+            describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenTransforming(xmlFile.toFile())
+                    .hasXpathContaining("/output/one/text()", "caf\u00e9")
+                    .evaluate();
+            describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenTransforming(xmlFile)
+                    .hasXpathContaining("/output/one/text()", "caf\u00e9")
+                    .evaluate();
+        } finally {
+            Files.delete(xmlFile);
+        }
+        describe(new File("./src/test/resources/5.xslt"), line -> { })
+                .whenTransforming(new ByteArrayInputStream(latin1))
+                .hasXpathContaining("/output/one/text()", "caf\u00e9")
+                .evaluate();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(latin1);
+        describe(new File("./src/test/resources/5.xslt"), line -> { })
+                .whenTransforming(buffer)
+                .hasXpathContaining("/output/one/text()", "caf\u00e9")
+                .evaluate();
+        assertThat(buffer.position(), is(0));
+    }
+
+    @Test
+    public void transformsAMemoryMappedFileLargerThanSixteenMegabytes() throws IOException, TransformerException, XPathExpressionException {
+        final Path xmlFile = Files.createTempFile("large", ".xml");
+        try {
+            try (OutputStream out = Files.newOutputStream(xmlFile)) {
+                out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><!--".getBytes(StandardCharsets.UTF_8));
+                final byte[] padding = new byte[1024 * 1024];
+                Arrays.fill(padding, (byte) 'x');
+                for (int i = 0; i < 17; i++) {
+                    out.write(padding);
+                }
+                out.write("--><foo>caf\u00e9</foo></root>".getBytes(StandardCharsets.UTF_8));
+            }
+            assertThat(Files.size(xmlFile) > 16L * 1024 * 1024, is(true));
+
+            describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenTransforming(xmlFile)
+                    .hasXpathContaining("/output/one/text()", "caf\u00e9")
+                    .evaluate();
+            describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenTransforming(xmlFile.toFile())
+                    .hasXpathContaining("/output/one/text()", "caf\u00e9")
+                    .evaluate();
+        } finally {
+            Files.delete(xmlFile);
+        }
+    }
+
+    @Test
+    public void transformsAParsedSourceWithoutParsingItAgain() throws IOException, TransformerException, XPathExpressionException {
+        final Path xmlFile = Files.createTempFile("source", ".xml");
+        final AggregatingMetricsListener metrics = new AggregatingMetricsListener();
+        TransformAssert.setMetricsListener(metrics);
+        try {
+            Files.write(xmlFile, "<root><foo>bar</foo></root>".getBytes(StandardCharsets.UTF_8));
+            final ParsedSource source = TransformAssert.source(xmlFile);
+            assertThat(metrics.getCount(Phase.PARSING), is(1L));
+
+            for (String param : new String[] {"a", "b"}) {
+                describe(new File("./src/test/resources/5.xslt"), line -> { })
+                        .whenTransforming(source, "param1", param)
+                        .hasXpathContaining("/output/one/text()", "bar")
+                        .andHasXpathContaining("/output/two[1]/text()", param)
+                        .evaluate();
+            }
+            describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenComparingTo(new File("./src/test/resources/5.xslt"))
+                    .whenTransforming(source)
+                    .hasEqualOutputs()
+                    .evaluate();
+
+            // besides the source, only the outputs of the two xpath assertions were parsed
+            assertThat(metrics.getCount(Phase.TRANSFORMATION), is(4L));
+            assertThat(metrics.getCount(Phase.PARSING), is(3L));
+        } finally {
+            TransformAssert.setMetricsListener(null);
+            Files.delete(xmlFile);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAParsedSourceFromAnotherEngine() throws IOException, TransformerException {
+        final Path xmlFile = Files.createTempFile("source", ".xml");
+        try {
+            Files.write(xmlFile, "<root><foo>bar</foo></root>".getBytes(StandardCharsets.UTF_8));
+
+            describe(new File("./src/test/resources/5.xslt"), new SaxonEngine(), line -> { }, line -> { })
+                    .whenTransforming(TransformAssert.source(xmlFile));
+        } finally {
+            Files.delete(xmlFile);
+        }
+    }
+
+    @Test
+    public void appliesAssertionPlanToParameterMatrix() throws IOException, TransformerException {
+        final Path xmlFile = Files.createTempFile("source", ".xml");
+        try {
+            Files.write(xmlFile, "<root><foo>bar</foo></root>".getBytes(StandardCharsets.UTF_8));
+            final List<String> messages = new ArrayList<>();
+
+            final TransformMatrixResults results = describe(new File("./src/test/resources/5.xslt"), messages::add)
+                    .whenTransformingMatrix(xmlFile.toFile(),
+                            ParameterMatrix.parameter("param1", "a", "b", "c").and("param2", "x", "y"),
+                            result -> result
+                                    .hasXpathContaining("/output/one/text()", "bar")
+                                    .andDoesNotHaveXpathContaining("/output/two[1]/text()", "c", "PARAM1 NOT C"));
+
+            assertThat(results.getTotalCount(), is(6));
+            assertThat(results.getFailedCount(), is(2));
+            assertThat(results.getFailedCombinations().get(0), is(new String[] {"param1", "c", "param2", "x"}));
+            try {
+                results.evaluate();
+            } catch (AssertionError e) {
+                assertThat(e.getMessage(), containsString("2 of 6 parameter combinations"));
+                assertThat(messages.stream().map(String::trim).collect(toList()), hasItems(
+                        is("param1=c, param2=y"),
+                        is("PARAM1 NOT C"),
+                        is("PASSED: 4 of 6")));
+                return;
+            }
+            throw new AssertionError("expected evaluate to fail");
+        } finally {
+            Files.delete(xmlFile);
+        }
+    }
+
+    @Test
+    public void transformsAndEvaluatesAsynchronously() throws IOException, TransformerException, XPathExpressionException {
+        final Path xmlFile = Files.createTempFile("source", ".xml");
+        Files.write(xmlFile, "<root><foo>bar</foo></root>".getBytes(StandardCharsets.UTF_8));
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final TransformAssertWithTransformer transformer =
+                describe(new File("./src/test/resources/5.xslt"), messages::add).deferringAssertions();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<CompletableFuture<TransformAssertWithTransformResult>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(transformer.whenTransformingAsync(xmlFile.toFile(), executor, "param1", "p" + i));
+            }
+            final CompletableFuture<TransformCompareWithTransformResults> comparison =
+                    describe(new File("./src/test/resources/5.xslt"), messages::add)
+                            .whenComparingTo(new File("./src/test/resources/5.xslt"))
+                            .whenTransformingAsync(TransformAssert.source(xmlFile), executor);
+
+            final List<CompletableFuture<Void>> evaluations = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                evaluations.add(results.get(i).join()
+                        .hasXpathContaining("/output/two[1]/text()", "p" + i)
+                        .evaluateAsync(executor));
+            }
+            evaluations.add(comparison.join().hasEqualOutputs().evaluateAsync(executor));
+            CompletableFuture.allOf(evaluations.toArray(new CompletableFuture[0])).join();
+
+            final CompletableFuture<Void> failing = transformer.whenTransformingAsync(xmlFile.toFile(), executor).join()
+                    .hasXpathContaining("/output/one/text()", "not bar")
+                    .evaluateAsync(executor);
+            try {
+                failing.join();
+                throw new IllegalStateException("expected the evaluation to fail");
+            } catch (CompletionException e) {
+                assertThat(e.getCause() instanceof AssertionError, is(true));
+            }
+        } finally {
+            executor.shutdown();
+            Files.delete(xmlFile);
+        }
+
+        // the lines of each result are logged in one block
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).equals("DESCRIBE:")) {
+                assertThat(messages.get(i + 1).trim(), containsString("5.xslt"));
+            }
+        }
+    }
+
+    @Test
+    public void scopesWarningsToEachTransformation() throws IOException, TransformerException {
+        final List<String> messages = new ArrayList<>();
+        final TransformAssertWithTransformer shared = describe(new File("./src/test/resources/9.xslt"), messages::add);
+
+        shared.whenTransforming(XML).evaluate(true);
+        final int firstRun = messages.size();
+        shared.whenTransforming(XML).evaluate(true);
+
+        assertThat(messages.size(), is(firstRun * 2));
+    }
+
+    @Test
+    public void sharesOneTransformerBetweenThreads() throws TransformerException {
+        final TransformAssertWithTransformer shared = describe(new File("./src/test/resources/5.xslt"), line -> { });
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<CompletableFuture<Void>> evaluations = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                final String value = "value-" + i;
+                evaluations.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        shared.whenTransforming("<root><foo>" + value + "</foo></root>", "param1", value)
+                                .hasXpathContaining("/output/one/text()", value)
+                                .andHasXpathContaining("/output/two[1]/text()", value)
+                                .evaluate();
+                    } catch (IOException | TransformerException | XPathExpressionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(evaluations.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failsFastAtTheFirstFailedAssertion() throws IOException, TransformerException, XPathExpressionException {
+        for (boolean deferring : new boolean[] {false, true}) {
+            final List<String> messages = new ArrayList<>();
+            final TransformAssertWithTransformer transformer =
+                    describe(new File("./src/test/resources/5.xslt"), messages::add).failingFast(true);
+            if (deferring) {
+                transformer.deferringAssertions();
+            }
+            try {
+                transformer.whenTransforming(XML)
+                        .hasXpathContaining("/output/one/text()", "bar", "FIRST")
+                        .andHasXpathContaining("/output/one/text()", "not bar", "SECOND")
+                        .andHasXpathContaining("/output/one/text()", "bar", "THIRD")
+                        .evaluate();
+            } catch (AssertionError e) {
+                assertThat(e.getMessage(), containsString("SECOND"));
+                final List<String> trimmedMessages = messages.stream().map(String::trim).collect(toList());
+                assertThat(trimmedMessages, hasItems(is("FIRST (OK)"), is("SECOND (FAILED)"), is("THIRD (SKIPPED)")));
+                assertThat(trimmedMessages.contains("OUTPUT:"), is(false));
+                continue;
+            }
+            throw new AssertionError("expected evaluate to fail");
+        }
+    }
+
+    @Test
+    public void reportsDeferredAssertionsBeforeTheFirstFailureInChainOrder() throws IOException, TransformerException, XPathExpressionException {
+        for (int run = 0; run < 20; run++) {
+            final List<String> messages = new ArrayList<>();
+            final TransformAssertWithTransformResult result = describe(new File("./src/test/resources/5.xslt"), messages::add)
+                    .failingFast(true)
+                    .deferringAssertions()
+                    .whenTransforming(XML);
+            for (int i = 0; i < 64; i++) {
+                result.andHasXpathContaining("/output/one/text()", i == 32 ? "not bar" : "bar", "CHECK " + i);
+            }
+            try {
+                result.evaluate();
+            } catch (AssertionError e) {
+                final List<String> trimmedMessages = messages.stream().map(String::trim).collect(toList());
+                for (int i = 0; i < 64; i++) {
+                    assertThat(trimmedMessages, hasItems(is("CHECK " + i + (i < 32 ? " (OK)" : i == 32 ? " (FAILED)" : " (SKIPPED)"))));
+                }
+                continue;
+            }
+            throw new AssertionError("expected evaluate to fail");
+        }
+    }
+
+    @Test
+    public void failsFastByDefaultAndCancelsBatches() throws IOException, TransformerException {
+        final Path xmlFile = Files.createTempFile("source", ".xml");
+        final String[] values = new String[200];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = "value-" + i;
+        }
+
+        TransformAssert.setFailFast(true);
+        final TransformMatrixResults results;
+        try {
+            Files.write(xmlFile, "<root><foo>bar</foo></root>".getBytes(StandardCharsets.UTF_8));
+            results = describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .whenTransformingMatrix(xmlFile.toFile(), ParameterMatrix.parameter("param1", values),
+                            result -> result.hasXpathContaining("/output/one/text()", "not bar"));
+        } finally {
+            TransformAssert.setFailFast(false);
+            Files.delete(xmlFile);
+        }
+
+        // jobs which finished their transformation after the first failure keep their own failures
+        assertThat(results.getFailedCount() > 0, is(true));
+        assertThat(results.getSkippedCount() > 0, is(true));
+        assertThat(results.getPassedCount(), is(0));
+        assertThat(results.getFailedCount() + results.getSkippedCount(), is(200));
+    }
+
+    @Test
+    public void assertsTimeAndAllocationBudgets() throws IOException, TransformerException {
+        final List<String> messages = new ArrayList<>();
+        final AggregatingMetricsListener metrics = new AggregatingMetricsListener();
+        TransformAssert.setMetricsListener(metrics);
+        try {
+            describe(new File("./src/test/resources/5.xslt"), messages::add)
+                    .warmingUp(2)
+                    .whenTransforming(XML)
+                    .completesWithin(Duration.ofSeconds(30))
+                    .andAllocatesAtMost(1, "ALLOCATION BUDGET")
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("But allocated: "));
+            assertThat(messages.stream().map(String::trim).collect(toList()), hasItems(
+                    is("COMPLETES WITHIN 30000 ms (OK)"),
+                    is("ALLOCATION BUDGET (FAILED)")));
+            assertThat(metrics.getCount(Phase.TRANSFORMATION), is(3L));
+            return;
+        } finally {
+            TransformAssert.setMetricsListener(null);
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void comparesThroughputWithBaseline() throws IOException, TransformerException {
+        describe(new File("./src/test/resources/5.xslt"), line -> { })
+                .whenComparingTo(new File("./src/test/resources/5.xslt"))
+                .whenTransforming(XML)
+                .performsNoWorseThanBaseline(1.0)
+                .evaluate();
+
+        final String slow = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:template match=\"/\"><output><xsl:value-of select=\"sum(for $i in 1 to 200000 return $i * 2)\"/>" +
+                "</output></xsl:template></xsl:stylesheet>";
+        final List<String> messages = new ArrayList<>();
+        try {
+            describe(slow, messages::add)
+                    .whenComparingTo(new File("./src/test/resources/5.xslt"))
+                    .whenTransforming(XML)
+                    .performsNoWorseThanBaseline(0.1, 2, 10)
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("median"));
+            assertThat(messages.stream().map(String::trim).collect(toList()),
+                    hasItems(is("PERFORMS NO WORSE THAN BASELINE (+10%) (FAILED)")));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void reportsAnExcerptOfASpilledOutputWhichIsNotEqual() throws IOException, TransformerException {
+        final char[] value = new char[100000];
+        Arrays.fill(value, 'x');
+        try {
+            describe(new File("./src/test/resources/5.xslt"), line -> { })
+                    .spillingOutputToDiskAbove(16)
+                    .whenTransforming(XML, "param1", new String(value))
+                    .isEqualto("<output/>")
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("  But got: '<?xml"));
+            assertThat(e.getMessage(), containsString("xxx...'"));
+            assertThat(e.getMessage().length() < 2048, is(true));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void findsSemanticDifferencesWithTheHashedDiffEngine() throws IOException, TransformerException {
+        describe(new File("./src/test/resources/8.xslt"))
+                .whenComparingTo(new File("./src/test/resources/3.xslt"))
+                .whenTransforming(XML)
+                .outputsIdenticalXml(DiffEngine.HASHED)
+                .evaluate();
+
+        try {
+            describe(new File("./src/test/resources/7.xslt"))
+                    .whenComparingTo(new File("./src/test/resources/3.xslt"))
+                    .whenTransforming(XML)
+                    .outputsIdenticalXml(DiffEngine.HASHED)
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString(
+                    "Expected text value 'foo' but was 'fooa' - comparing <foo...> at /output[1]/foo[1]/text()[1]"));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void doesNotTrustCollidingHashesInTheHashedDiffEngine() throws IOException, TransformerException {
+        // "Aa" and "BB" share their String.hashCode(), as do the attributes a="b" and b="a" in a map
+        assertHashedDiffFails(literal("<r><x>Aa</x></r>"), literal("<r><x>BB</x></r>"),
+                "Expected text value 'Aa' but was 'BB'");
+        assertHashedDiffFails(literal("<r><x a=\"b\"/></r>"), literal("<r><x b=\"a\"/></r>"),
+                "Expected attribute name 'a' but was 'null'");
+        assertHashedDiffFails(literal("<r>a<x/>b</r>"), literal("<r>ab<x/></r>"),
+                "Expected text value 'a' but was 'ab'");
+        assertHashedDiffFails(literal("<r/>"),
+                "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                        "<xsl:output method=\"text\"/><xsl:template match=\"/\">not xml</xsl:template></xsl:stylesheet>",
+                "Got unparsable XML output");
+    }
+
+    private static void assertHashedDiffFails(String baseline, String underTest, String expectedMessage)
+            throws IOException, TransformerException {
+        try {
+            describe(underTest, line -> { })
+                    .whenComparingTo(baseline)
+                    .whenTransforming(XML)
+                    .outputsIdenticalXml(DiffEngine.HASHED)
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString(expectedMessage));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    private static String literal(String output) {
+        return "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:template match=\"/\">" + output + "</xsl:template></xsl:stylesheet>";
+    }
+
+    @Test
+    public void comparesCommentsAndProcessingInstructionsLikeXmlUnitInTheHashedDiffEngine() throws IOException, TransformerException {
+        final String[][] equal = {
+                {"<r><xsl:comment>a</xsl:comment><x/></r>", "<r><x/><xsl:comment> a </xsl:comment></r>"},
+                {"<r><xsl:processing-instruction name=\"p\">a</xsl:processing-instruction></r>",
+                        "<r><xsl:processing-instruction name=\"p\">a </xsl:processing-instruction></r>"},
+        };
+        final String[][] different = {
+                {"<r><xsl:comment>a</xsl:comment><x/></r>", "<r><xsl:comment>b</xsl:comment><x/></r>"},
+                {"<r><xsl:comment>a</xsl:comment></r>", "<r/>"},
+                {"<xsl:comment>a</xsl:comment><r/>", "<xsl:comment>b</xsl:comment><r/>"},
+                {"<r><xsl:comment>a</xsl:comment><xsl:comment>b</xsl:comment></r>",
+                        "<r><xsl:comment>b</xsl:comment><xsl:comment>a</xsl:comment></r>"},
+                {"<r><xsl:processing-instruction name=\"p\">a</xsl:processing-instruction></r>",
+                        "<r><xsl:processing-instruction name=\"p\">b</xsl:processing-instruction></r>"},
+                {"<r>a<xsl:comment>c</xsl:comment>b</r>", "<r>ab<xsl:comment>c</xsl:comment></r>"},
+        };
+
+        for (DiffEngine engine : DiffEngine.values()) {
+            for (String[] outputs : equal) {
+                assertThat(engine + " " + outputs[1], identicalXml(literal(outputs[0]), literal(outputs[1]), engine), is(true));
+            }
+            for (String[] outputs : different) {
+                assertThat(engine + " " + outputs[1], identicalXml(literal(outputs[0]), literal(outputs[1]), engine), is(false));
+            }
+        }
+        assertHashedDiffFails(literal("<r><xsl:comment>a</xsl:comment></r>"),
+                literal("<r><xsl:comment>b</xsl:comment></r>"),
+                "Expected text value 'a' but was 'b' - comparing <!--a--> at /r[1]/comment()[1] to <!--b--> at /r[1]/comment()[1]");
+    }
+
+    private static boolean identicalXml(String baseline, String underTest, DiffEngine engine)
+            throws IOException, TransformerException {
+        try {
+            describe(underTest, line -> { })
+                    .whenComparingTo(baseline)
+                    .whenTransforming(XML)
+                    .outputsIdenticalXml(engine)
+                    .evaluate();
+        } catch (AssertionError e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void reportsAnExcerptOfUnequalOutputs() throws IOException, TransformerException {
+        final String[] baselineValues = new String[500];
+        final String[] underTestValues = new String[500];
+        for (int i = 0; i < baselineValues.length; i++) {
+            baselineValues[i] = "value-" + i;
+            underTestValues[i] = i == 400 ? "changed" : "value-" + i;
+        }
+
+        final List<String> messages = new ArrayList<>();
+        describe(values(baselineValues), messages::add)
+                .whenComparingTo(values(baselineValues))
+                .whenTransforming(XML)
+                .hasEqualOutputs()
+                .evaluate();
+        // the label shows the start of the baseline output
+        assertThat(messages.stream().map(String::trim)
+                .anyMatch(message -> message.startsWith("EQUAL: <") && message.endsWith("... (OK)")
+                        && message.length() < 1100), is(true));
+
+        try {
+            describe(values(underTestValues), line -> { })
+                    .whenComparingTo(values(baselineValues))
+                    .whenTransforming(XML)
+                    .hasEqualOutputs()
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("differ from byte"));
+            assertThat(e.getMessage(), containsString("<v>changed</v>"));
+            final String failure = e.getMessage().substring(e.getMessage().indexOf(System.lineSeparator()));
+            assertThat(failure, not(containsString("value-0<")));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void comparesCanonicalFormsOfTheOutputs() throws IOException, TransformerException {
+        final String unindented = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:output method=\"xml\" indent=\"no\" omit-xml-declaration=\"yes\"/>" +
+                "<xsl:template match=\"/\"><o:output xmlns:o=\"urn:out\"><o:bar b=\"2\" a=\"1\">bar</o:bar>" +
+                "</o:output></xsl:template></xsl:stylesheet>";
+        final String indented = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:output method=\"xml\" indent=\"yes\"/>" +
+                "<xsl:template match=\"/\"><output xmlns=\"urn:out\"><bar a=\"1\" b=\"2\"><![CDATA[bar]]></bar>" +
+                "</output></xsl:template></xsl:stylesheet>";
+
+        describe(indented)
+                .whenComparingTo(unindented)
+                .whenTransforming(XML)
+                .hasEqualOutputs(Canonicalization.xml().ignoringWhitespace().ignoringAttributeOrder())
+                .outputsIdenticalXml()
+                .evaluate();
+
+        final List<String> messages = new ArrayList<>();
+        try {
+            describe(indented, messages::add)
+                    .whenComparingTo(unindented)
+                    .whenTransforming(XML)
+                    .hasEqualOutputs(Canonicalization.xml().ignoringWhitespace())
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("Expected output to canonically equal"));
+            assertThat(messages.stream().map(String::trim).collect(toList()),
+                    hasItems(is("CANONICALLY EQUAL BASELINE OUTPUT (FAILED)")));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void matchesXpathResultsAsMultiset() throws IOException, TransformerException, XPathExpressionException {
+        final String aab = values("a", "a", "b");
+
+        describe(values("a", "b", "a"))
+                .whenComparingTo(aab)
+                .whenTransforming(XML)
+                .hasMatchingXPathResultsFor("/output/v/text()", XPathMatchMode.MULTISET)
+                .evaluate();
+
+        try {
+            describe(values("b", "a", "c"))
+                    .whenComparingTo(aab)
+                    .whenTransforming(XML)
+                    .hasMatchingXPathResultsFor("/output/v/text()", XPathMatchMode.MULTISET)
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("Missing 1 distinct values:"));
+            assertThat(e.getMessage(), containsString("'a' (1x)"));
+            assertThat(e.getMessage(), containsString("Got 1 unexpected distinct values:"));
+            assertThat(e.getMessage(), containsString("'c' (1x)"));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void matchesXpathResultsInOrder() throws IOException, TransformerException, XPathExpressionException {
+        final String aab = values("a", "a", "b");
+
+        describe(values("a", "a", "b"))
+                .whenComparingTo(aab)
+                .whenTransforming(XML)
+                .hasMatchingXPathResultsFor("/output/v/text()", XPathMatchMode.ORDERED)
+                .evaluate();
+
+        try {
+            describe(values("a", "b", "a"))
+                    .whenComparingTo(aab)
+                    .whenTransforming(XML)
+                    .hasMatchingXPathResultsFor("/output/v/text()", XPathMatchMode.ORDERED)
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("at position 2 expected: 'a'"));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    @Test
+    public void omitsMissingValuesAfterTheFirstTwenty() throws IOException, TransformerException, XPathExpressionException {
+        final String[] baselineValues = new String[25];
+        for (int i = 0; i < baselineValues.length; i++) {
+            baselineValues[i] = String.format("v%02d", i);
+        }
+
+        try {
+            describe(values("v00"))
+                    .whenComparingTo(values(baselineValues))
+                    .whenTransforming(XML)
+                    .hasMatchingXPathResultsFor("/output/v/text()", XPathMatchMode.MULTISET)
+                    .evaluate();
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("Missing 24 distinct values:"));
+            assertThat(e.getMessage(), containsString("'v20' (1x)"));
+            assertThat(e.getMessage(), not(containsString("'v21' (1x)")));
+            assertThat(e.getMessage(), containsString("... (4 values omitted)"));
+            return;
+        }
+        throw new AssertionError("expected evaluate to fail");
+    }
+
+    private static String values(String... values) {
+        final StringBuilder sb = new StringBuilder(
+                "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:template match=\"/\"><output>");
+        for (String value : values) {
+            sb.append("<v>").append(value).append("</v>");
+        }
+        return sb.append("</output></xsl:template></xsl:stylesheet>").toString();
+    }
 }